@@ -17,32 +17,32 @@
 
 package dev.lambdaurora.lambdamap;
 
+import dev.lambdaurora.lambdamap.extension.WorldChunkExtension;
+import dev.lambdaurora.lambdamap.map.BlockStateTable;
+import it.unimi.dsi.fastutil.objects.Reference2BooleanOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.block.MapColor;
-import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.Direction;
-import net.minecraft.world.Heightmap;
-import net.minecraft.world.World;
-import net.minecraft.world.chunk.Chunk;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.PalettedContainer;
 
 /**
  * Represents the block searcher.
+ * <p>
+ * The searcher only reads chunk snapshots, so it may be used from a worker thread.
  *
  * @author comp500
  */
 public class BlockSearcher {
-	private final World world;
-	public final BlockPos.Mutable pos = new BlockPos.Mutable();
-	private final BlockPos.Mutable depthTestPos = new BlockPos.Mutable();
+	private final BlockStateTable blockStateTable = LambdaMap.get().getBlockStateTable();
+	/**
+	 * Caches whether chunk sections are transparent on the map, a searcher is used for a single update of a chunk.
+	 */
+	private final Reference2BooleanOpenHashMap<PalettedContainer<BlockState>> transparentSections = new Reference2BooleanOpenHashMap<>();
 	private BlockState state;
 	private int height;
 	private int waterDepth;
 
-	public BlockSearcher(World world) {
-		this.world = world;
-	}
-
 	public BlockState getState() {
 		return this.state;
 	}
@@ -55,61 +55,153 @@ public class BlockSearcher {
 		return this.waterDepth;
 	}
 
-	public void searchForBlock(Chunk chunk, Heightmap surfaceHeightmap, int x, int z, int chunkStartX, int chunkStartZ) {
-		this.height = surfaceHeightmap.get(x & 15, z & 15);
-		this.pos.set(chunkStartX + x, this.height, chunkStartZ + z);
-		int minimumY = this.world.getBottomY();
-		if (this.height <= minimumY + 1) {
+	/**
+	 * Searches downward from the surface for the first block with a map color.
+	 * <p>
+	 * The chunk sections are read directly, and the sections which cannot contain a block with a map color are skipped.
+	 *
+	 * @param chunk the chunk snapshot
+	 * @param x the X-coordinate of the column in the chunk
+	 * @param z the Z-coordinate of the column in the chunk
+	 */
+	public void searchForBlock(ChunkSnapshot chunk, int x, int z) {
+		this.height = chunk.getSurfaceHeight(ChunkRasterizer.getColumnIndex(x & 15, z & 15));
+		if (this.height <= chunk.getBottomY() + 1) {
 			this.state = Blocks.AIR.getDefaultState();
-		} else {
-			do {
-				this.pos.setY(--this.height);
-				this.state = chunk.getBlockState(this.pos);
-			} while (this.state.getMapColor(this.world, this.pos) == MapColor.NONE && this.height > minimumY);
+			return;
+		}
+
+		this.searchDown(chunk, x & 15, z & 15, this.height - 1);
+	}
+
+	/**
+	 * Searches downward from the given height for the first block with a map color, skipping the transparent sections.
+	 * <p>
+	 * If nothing is found, the column ends on the bottom block.
+	 *
+	 * @param chunk the chunk snapshot
+	 * @param localX the X-coordinate of the column in the chunk
+	 * @param localZ the Z-coordinate of the column in the chunk
+	 * @param y the height to start searching from
+	 */
+	private void searchDown(ChunkSnapshot chunk, int localX, int localZ, int y) {
+		int minimumY = chunk.getBottomY();
+		while (y > minimumY) {
+			int sectionIndex = chunk.getSectionIndex(y);
+			var section = chunk.getSection(sectionIndex);
+			int sectionBottomY = Math.max(minimumY, chunk.getSectionBottomY(sectionIndex));
+
+			if (section == null || this.isTransparent(section)) {
+				y = sectionBottomY - 1;
+				continue;
+			}
+
+			for (; y >= sectionBottomY; y--) {
+				var state = section.get(localX, y & 15, localZ);
+				if (this.getMapColor(state) != MapColor.NONE) {
+					this.height = y;
+					this.state = state;
+					return;
+				}
+			}
 		}
+
+		// Nothing has been found, the column ends on the bottom block.
+		this.height = minimumY;
+		this.state = chunk.getBlockState(localX, minimumY, localZ);
 	}
 
-	public void calcWaterDepth(Chunk chunk) {
+	/**
+	 * Returns whether the given chunk section cannot contain any block with a map color.
+	 *
+	 * @param section the block states of the chunk section
+	 * @return {@code true} if the section is transparent on the map, else {@code false}
+	 */
+	private boolean isTransparent(PalettedContainer<BlockState> section) {
+		return this.transparentSections.computeIfAbsent(section,
+				(PalettedContainer<BlockState> s) -> !s.hasAny(state -> this.getMapColor(state) != MapColor.NONE));
+	}
+
+	private MapColor getMapColor(BlockState state) {
+		return this.blockStateTable.getMapColor(state);
+	}
+
+	/**
+	 * Computes the depth of the fluid column found by the last search.
+	 *
+	 * @param chunk the chunk snapshot
+	 * @param x the X-coordinate of the column in the chunk
+	 * @param z the Z-coordinate of the column in the chunk
+	 */
+	public void calcWaterDepth(ChunkSnapshot chunk, int x, int z) {
 		int heightTemp = this.height - 1;
 		this.waterDepth = 0;
-		this.depthTestPos.set(this.pos);
 
 		BlockState depthTestBlock;
 		do {
-			this.depthTestPos.setY(heightTemp--);
-			depthTestBlock = chunk.getBlockState(depthTestPos);
+			depthTestBlock = chunk.getBlockState(x & 15, heightTemp--, z & 15);
 			++this.waterDepth;
-		} while (heightTemp > 0 && !depthTestBlock.getFluidState().isEmpty());
+		} while (heightTemp > 0 && this.blockStateTable.isFluid(depthTestBlock));
 
-		this.state = this.getFluidStateIfVisible(this.world, this.state, this.depthTestPos);
+		this.state = this.getFluidStateIfVisible(this.state);
 	}
 
-	public void searchForBlockCeil(Chunk chunk, int x, int z, int chunkStartX, int chunkStartZ) {
-		this.height = 85;
-		boolean brokeThroughCeil = false;
-		this.pos.set(chunkStartX + x, this.height, chunkStartZ + z);
-		var firstBlockState = chunk.getBlockState(this.pos);
-		this.state = firstBlockState;
-		if (this.state.isAir()) {
-			brokeThroughCeil = true;
+	/**
+	 * Searches for the first block with a map color below the ceiling, for dimensions with a ceiling.
+	 * <p>
+	 * The search starts at the given scan height: the first air block below it marks the bottom of the ceiling,
+	 * its height is cached per column in the snapshot, to be published to the chunk once rasterized.
+	 * If the column has no air below the scan height, the block at the scan height is used.
+	 *
+	 * @param chunk the chunk snapshot
+	 * @param x the X-coordinate of the column in the chunk
+	 * @param z the Z-coordinate of the column in the chunk
+	 * @param scanHeight the height to start searching from
+	 */
+	public void searchForBlockCeil(ChunkSnapshot chunk, int x, int z, int scanHeight) {
+		int localX = x & 15;
+		int localZ = z & 15;
+		scanHeight = MathHelper.clamp(scanHeight, chunk.getBottomY(), chunk.getTopY() - 1);
+
+		int index = ChunkRasterizer.getColumnIndex(localX, localZ);
+		int airY = chunk.getCeilingAir(index);
+		if (airY == WorldChunkExtension.NO_CEILING_AIR) {
+			airY = this.findAirBelow(chunk, localX, localZ, scanHeight);
+			chunk.setCeilingAir(index, airY);
 		}
-		while ((!brokeThroughCeil || this.state.getMapColor(this.world, this.pos) == MapColor.NONE)
-				&& this.height > this.world.getBottomSectionCoord()) {
-			this.pos.setY(--this.height);
-			this.state = chunk.getBlockState(this.pos);
-			if (this.state.isAir()) {
-				brokeThroughCeil = true;
-			}
+
+		if (airY > scanHeight) {
+			// Never broke through the ceiling.
+			this.height = scanHeight;
+			this.state = chunk.getBlockState(localX, scanHeight, localZ);
+		} else {
+			this.searchDown(chunk, localX, localZ, airY);
 		}
-		if (!brokeThroughCeil) {
-			this.state = firstBlockState;
-			this.height = 85;
-			this.pos.setY(this.height);
+	}
+
+	/**
+	 * Finds the first air block at or below the given height, empty sections are considered as air.
+	 *
+	 * @return the height of the air block, or a height above the given one if there is none
+	 */
+	private int findAirBelow(ChunkSnapshot chunk, int localX, int localZ, int y) {
+		int minimumY = chunk.getBottomY();
+		while (y >= minimumY) {
+			int sectionIndex = chunk.getSectionIndex(y);
+			var section = chunk.getSection(sectionIndex);
+			if (section == null)
+				return y;
+
+			int sectionBottomY = Math.max(minimumY, chunk.getSectionBottomY(sectionIndex));
+			for (; y >= sectionBottomY; y--) {
+				if (section.get(localX, y & 15, localZ).isAir())
+					return y;
+			}
 		}
+		return Integer.MAX_VALUE;
 	}
 
-	private BlockState getFluidStateIfVisible(World world, BlockState state, BlockPos pos) {
-		var fluidState = state.getFluidState();
-		return !fluidState.isEmpty() && !state.isSideSolidFullSquare(world, pos, Direction.UP) ? fluidState.getBlockState() : state;
+	private BlockState getFluidStateIfVisible(BlockState state) {
+		return this.blockStateTable.isFluidVisible(state) ? state.getFluidState().getBlockState() : state;
 	}
 }
@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap;
+
+import dev.lambdaurora.lambdamap.extension.WorldChunkExtension;
+import dev.lambdaurora.lambdamap.map.WorldMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.MapColor;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.WorldChunk;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the rasterizer of world chunks into the world map.
+ * <p>
+ * The dirty columns of a chunk are taken on the client thread along with a {@linkplain ChunkSnapshot snapshot} of the chunk,
+ * which is rasterized on a pool of worker threads without touching the world. The results are applied to the map chunks
+ * on the client thread during the next ticks. Both the snapshots and the results are checked against the configured
+ * per-tick time budget chunk by chunk, the remaining chunks stay dirty and are rasterized on the next ticks.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ChunkRasterizer {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int WORKERS = MathHelper.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 4);
+	/**
+	 * The maximum amount of chunks being rasterized at once, which bounds the memory used by the snapshots.
+	 */
+	private static final int MAX_PENDING = WORKERS * 4;
+
+	private final LambdaMap mod;
+	private final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+		var thread = new Thread(runnable, "LambdaMap Rasterizer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Stores the positions of the chunks which are being rasterized, a chunk is rasterized again only once its result is applied.
+	 */
+	private final LongSet pendingChunks = new LongOpenHashSet();
+	private final Queue<Job> completedJobs = new ConcurrentLinkedQueue<>();
+
+	public ChunkRasterizer(LambdaMap mod) {
+		this.mod = mod;
+	}
+
+	/**
+	 * {@return {@code true} if chunks are being rasterized, whose results still have to be applied, otherwise {@code false}}
+	 */
+	public boolean hasPendingChunks() {
+		return !this.pendingChunks.isEmpty();
+	}
+
+	/**
+	 * Applies the rasterized chunks, then starts rasterizing the given dirty chunks in order, within the per-tick time budget.
+	 *
+	 * @param world the world
+	 * @param map the world map
+	 * @param chunks the dirty chunks along with the chunks north of them sorted by priority, see {@link Task}
+	 * @return the amount of chunks whose rasterization has started
+	 */
+	public int rasterize(World world, WorldMap map, List<Task> chunks) {
+		long budget = TimeUnit.MILLISECONDS.toNanos(this.mod.getConfig().getUpdateBudget());
+		long start = System.nanoTime();
+
+		Job job;
+		while (System.nanoTime() - start < budget && (job = this.completedJobs.poll()) != null) {
+			this.pendingChunks.remove(job.task.getChunk().getPos().toLong());
+			this.finish(map, job);
+		}
+
+		int scanHeight = map.getCeilingScanHeight();
+		boolean hasCeiling = world.getDimension().hasCeiling();
+		int started = 0;
+
+		for (var task : chunks) {
+			if (System.nanoTime() - start >= budget || this.pendingChunks.size() >= MAX_PENDING)
+				break;
+
+			long pos = task.getChunk().getPos().toLong();
+			if (!this.pendingChunks.add(pos))
+				continue; // The chunk stays dirty until its current result is applied.
+
+			var newJob = new Job(map, task, scanHeight, hasCeiling);
+			started++;
+
+			if (chunks.size() == 1 && this.pendingChunks.size() == 1) {
+				// Not worth waking up the workers.
+				newJob.run();
+				this.pendingChunks.remove(pos);
+				this.finish(map, newJob);
+			} else {
+				this.workers.execute(() -> {
+					newJob.run();
+					this.completedJobs.add(newJob);
+				});
+			}
+		}
+
+		return started;
+	}
+
+	private void finish(WorldMap map, Job job) {
+		// The map or its cave layer has been switched meanwhile, the loaded chunks are then marked dirty again.
+		if (job.map != map || job.layer != map.getLayer())
+			return;
+
+		if (job.error != null) {
+			LOGGER.error("Could not rasterize chunk " + job.task.getChunk().getPos() + ".", job.error);
+		} else {
+			this.apply(map, job);
+		}
+	}
+
+	/**
+	 * Applies the rasterized columns of a chunk to the map chunk, on the client thread.
+	 */
+	private void apply(WorldMap map, Job job) {
+		var task = job.task;
+		var result = job.result;
+		var chunkPos = task.getChunk().getPos();
+		int chunkStartX = chunkPos.getStartX();
+		int chunkStartZ = chunkPos.getStartZ();
+
+		var mapChunk = map.getChunkOrCreate(chunkPos.x >> 3, chunkPos.z >> 3);
+		long[] dirtyColumns = task.getDirtyColumns();
+		int minX = 16;
+		int minZ = 16;
+		int maxX = -1;
+		int maxZ = -1;
+
+		for (int zOffset = 0; zOffset < 16; zOffset++) {
+			for (int xOffset = 0; xOffset < 16; xOffset++) {
+				int index = getColumnIndex(xOffset, zOffset);
+				if (!isColumnDirty(dirtyColumns, index))
+					continue;
+
+				var biome = result.biomes == null ? null : result.biomes[index];
+				if (mapChunk.putPixelAndPreserve(chunkStartX + xOffset, chunkStartZ + zOffset,
+						result.colors[index], biome, result.states[index])) {
+					minX = Math.min(minX, xOffset);
+					minZ = Math.min(minZ, zOffset);
+					maxX = Math.max(maxX, xOffset);
+					maxZ = Math.max(maxZ, zOffset);
+				}
+			}
+		}
+
+		if (minX <= maxX) {
+			// Biome changes affect the blending of the water colors around them.
+			int margin = result.biomes == null ? 0 : WorldMap.WATER_BLEND_RADIUS;
+			this.mod.hud.markDirty(chunkStartX + minX - margin, chunkStartZ + minZ - margin,
+					chunkStartX + maxX + margin, chunkStartZ + maxZ + margin);
+		}
+
+		if (job.hasCeiling)
+			job.snapshot.publishCeilingAir(task.getChunk(), job.scanHeight);
+	}
+
+	/**
+	 * Rasterizes the columns of the given chunk.
+	 * <p>
+	 * Only reads the snapshots of the job, and may be called from a worker thread.
+	 *
+	 * @param job the chunk to rasterize
+	 * @return the rasterized columns
+	 */
+	private static Result rasterizeChunk(Job job) {
+		var chunk = job.snapshot;
+		var chunkBefore = job.snapshotBefore;
+
+		// Big thanks to comp500 for this piece of code
+		// https://github.com/comp500/tinymap/blob/master/src/main/java/link/infra/tinymap/TileGenerator.java#L103
+		var searcher = new BlockSearcher();
+		var blockStateTable = LambdaMap.get().getBlockStateTable();
+
+		long[] dirtyColumns = job.task.getDirtyColumns();
+		var result = new Result(job.withBiomes);
+
+		for (int xOffset = 0; xOffset < 16; xOffset++) {
+			// The height of the column north of the current one, used for the shading.
+			int lastHeight = 0;
+			boolean hasLastHeight = false;
+
+			for (int zOffset = 0; zOffset < 16; zOffset++) {
+				int index = getColumnIndex(xOffset, zOffset);
+				if (!isColumnDirty(dirtyColumns, index)) {
+					hasLastHeight = false;
+					continue;
+				}
+
+				if (!hasLastHeight) {
+					if (zOffset != 0) {
+						search(searcher, job, chunk, xOffset, zOffset - 1);
+						lastHeight = searcher.getHeight();
+					} else if (chunkBefore != null && !chunkBefore.isEmpty()) {
+						// Get first line, to calculate proper shade
+						search(searcher, job, chunkBefore, xOffset, 15);
+						lastHeight = searcher.getHeight();
+					}
+				}
+
+				search(searcher, job, chunk, xOffset, zOffset);
+
+				if (searcher.getHeight() > 0 && blockStateTable.isFluid(searcher.getState())) {
+					searcher.calcWaterDepth(chunk, xOffset, zOffset);
+				}
+
+				var mapColor = blockStateTable.getMapColor(searcher.getState());
+				if (result.biomes != null) {
+					result.biomes[index] = chunk.getBiome(xOffset, searcher.getHeight(), zOffset);
+				}
+
+				int shade;
+
+				if (mapColor == MapColor.WATER) {
+					double shadeTest = (double) searcher.getWaterDepth() * 0.1D + (double) (xOffset + zOffset & 1) * 0.2D;
+					shade = 1;
+					if (shadeTest < 0.5D) {
+						shade = 2;
+					}
+
+					if (shadeTest > 0.9D) {
+						shade = 0;
+					}
+				} else {
+					double shadeTest = (searcher.getHeight() - lastHeight) * 4.0D / 5.0D + ((double) (xOffset + zOffset & 1) - 0.5D) * 0.4D;
+					shade = 1;
+					if (shadeTest > 0.6D) {
+						shade = 2;
+					}
+					if (shadeTest < -0.6D) {
+						shade = 0;
+					}
+				}
+
+				lastHeight = searcher.getHeight();
+				hasLastHeight = true;
+				result.colors[index] = (byte) (mapColor.id * 4 + shade);
+				result.states[index] = searcher.getState();
+			}
+		}
+
+		return result;
+	}
+
+	private static void search(BlockSearcher searcher, Job job, ChunkSnapshot chunk, int xOffset, int zOffset) {
+		if (job.hasCeiling) {
+			searcher.searchForBlockCeil(chunk, xOffset, zOffset, job.scanHeight);
+		} else {
+			searcher.searchForBlock(chunk, xOffset, zOffset);
+		}
+	}
+
+	/**
+	 * Returns the index of a column in a chunk, also used as the bit index in the dirty column masks.
+	 *
+	 * @param xOffset the X-coordinate of the column in the chunk
+	 * @param zOffset the Z-coordinate of the column in the chunk
+	 * @return the index of the column
+	 * @see WorldChunkExtension#lambdamap$markColumnDirty(int, int)
+	 */
+	public static int getColumnIndex(int xOffset, int zOffset) {
+		return (zOffset << 4) | xOffset;
+	}
+
+	private static boolean isColumnDirty(long[] dirtyColumns, int index) {
+		return (dirtyColumns[index >> 6] & (1L << (index & 63))) != 0;
+	}
+
+	/**
+	 * Represents a chunk to rasterize, along with the chunk north of it which is used to shade its first row.
+	 * <p>
+	 * Only the columns set in the dirty column mask are rasterized. Tasks with a lower priority value are rasterized first.
+	 *
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	public static final class Task {
+		public static final Comparator<Task> PRIORITY_ORDER = Comparator.comparingInt(Task::getPriority);
+
+		private final WorldChunk chunk;
+		private final WorldChunk chunkBefore;
+		private final long[] dirtyColumns;
+		private final int priority;
+
+		public Task(WorldChunk chunk, WorldChunk chunkBefore, int priority) {
+			this.chunk = chunk;
+			this.chunkBefore = chunkBefore;
+			this.dirtyColumns = ((WorldChunkExtension) chunk).lambdamap$getDirtyColumns();
+			this.priority = priority;
+		}
+
+		public WorldChunk getChunk() {
+			return this.chunk;
+		}
+
+		public WorldChunk getChunkBefore() {
+			return this.chunkBefore;
+		}
+
+		/**
+		 * {@return the mask of the columns to rasterize, taken when the task was created}
+		 */
+		public long[] getDirtyColumns() {
+			return this.dirtyColumns;
+		}
+
+		public int getPriority() {
+			return this.priority;
+		}
+	}
+
+	/**
+	 * Represents the rasterization of a chunk, from the snapshots taken on the client thread to the result.
+	 */
+	private static final class Job {
+		final WorldMap map;
+		final int layer;
+		final Task task;
+		final int scanHeight;
+		final boolean hasCeiling;
+		final boolean withBiomes;
+		final ChunkSnapshot snapshot;
+		/**
+		 * The snapshot of the chunk north of the rasterized one, only taken if its first row is dirty.
+		 */
+		final @Nullable ChunkSnapshot snapshotBefore;
+		Result result;
+		@Nullable Exception error;
+
+		/**
+		 * Takes the dirty columns of the chunk, which is marked clean right away so it is marked dirty again by later updates.
+		 */
+		Job(WorldMap map, Task task, int scanHeight, boolean hasCeiling) {
+			this.map = map;
+			this.layer = map.getLayer();
+			this.task = task;
+			this.scanHeight = scanHeight;
+			this.hasCeiling = hasCeiling;
+
+			var extension = (WorldChunkExtension) task.getChunk();
+			this.withBiomes = extension.lambdamap$isBiomeDirty();
+			this.snapshot = ChunkSnapshot.take(task.getChunk(), this.withBiomes, scanHeight);
+			this.snapshotBefore = (task.getDirtyColumns()[0] & 0xffffL) != 0
+					? ChunkSnapshot.take(task.getChunkBefore(), false, scanHeight) : null;
+			extension.lambdamap$markClean(task.getDirtyColumns());
+		}
+
+		void run() {
+			try {
+				this.result = rasterizeChunk(this);
+			} catch (RuntimeException e) {
+				this.error = e;
+			}
+		}
+	}
+
+	/**
+	 * Represents the rasterized columns of a chunk.
+	 */
+	private static final class Result {
+		final byte[] colors = new byte[256];
+		final BlockState[] states = new BlockState[256];
+		final Biome @Nullable [] biomes;
+
+		Result(boolean withBiomes) {
+			this.biomes = withBiomes ? new Biome[256] : null;
+		}
+	}
+}
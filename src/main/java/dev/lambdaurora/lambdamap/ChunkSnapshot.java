@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap;
+
+import dev.lambdaurora.lambdamap.extension.WorldChunkExtension;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Represents a read-only copy of the parts of a world chunk read by the rasterizer.
+ * <p>
+ * Snapshots are taken on the client thread, so the chunk can be rasterized on a worker thread without touching the world.
+ * The cached heights of the first air block below the ceiling are copied as well, the heights found by the worker
+ * are kept in the snapshot and published back to the chunk by the client thread.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class ChunkSnapshot {
+	private final int startX;
+	private final int startZ;
+	private final int bottomY;
+	private final int topY;
+	private final int bottomSectionCoord;
+	/**
+	 * The block states of each section, {@code null} for the empty sections.
+	 */
+	private final PalettedContainer<BlockState>[] blockStates;
+	private final PalettedContainer<RegistryEntry<Biome>> @Nullable [] biomes;
+	private final int[] surfaceHeights = new int[256];
+	private final int[] ceilingAir = new int[256];
+	private final boolean empty;
+
+	@SuppressWarnings("unchecked")
+	private ChunkSnapshot(WorldChunk chunk, boolean withBiomes, int scanHeight) {
+		var pos = chunk.getPos();
+		this.startX = pos.getStartX();
+		this.startZ = pos.getStartZ();
+		this.bottomY = chunk.getBottomY();
+		this.topY = chunk.getTopY();
+		this.bottomSectionCoord = chunk.getBottomSectionCoord();
+		this.empty = chunk.isEmpty();
+
+		var sections = chunk.getSectionArray();
+		this.blockStates = new PalettedContainer[sections.length];
+		this.biomes = withBiomes ? new PalettedContainer[sections.length] : null;
+		for (int i = 0; i < sections.length; i++) {
+			var section = sections[i];
+			if (section == null)
+				continue;
+
+			if (!section.isEmpty())
+				this.blockStates[i] = section.getBlockStateContainer().copy();
+			if (this.biomes != null)
+				this.biomes[i] = section.getBiomeContainer().slice();
+		}
+
+		var heightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
+		var extension = (WorldChunkExtension) chunk;
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				int index = ChunkRasterizer.getColumnIndex(x, z);
+				this.surfaceHeights[index] = heightmap.get(x, z);
+				this.ceilingAir[index] = extension.lambdamap$getCeilingAir(index, scanHeight);
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the given chunk, must be called from the client thread.
+	 *
+	 * @param chunk the chunk
+	 * @param withBiomes {@code true} to copy the biomes of the chunk, or {@code false} otherwise
+	 * @param scanHeight the height the search starts from in dimensions with a ceiling
+	 * @return the snapshot
+	 */
+	static ChunkSnapshot take(WorldChunk chunk, boolean withBiomes, int scanHeight) {
+		return new ChunkSnapshot(chunk, withBiomes, scanHeight);
+	}
+
+	public int getStartX() {
+		return this.startX;
+	}
+
+	public int getStartZ() {
+		return this.startZ;
+	}
+
+	public int getBottomY() {
+		return this.bottomY;
+	}
+
+	public int getTopY() {
+		return this.topY;
+	}
+
+	public boolean isEmpty() {
+		return this.empty;
+	}
+
+	public int getSectionIndex(int y) {
+		return ChunkSectionPos.getSectionCoord(y) - this.bottomSectionCoord;
+	}
+
+	public int getSectionBottomY(int sectionIndex) {
+		return ChunkSectionPos.getBlockCoord(sectionIndex + this.bottomSectionCoord);
+	}
+
+	/**
+	 * {@return the block states of the given section, or {@code null} if the section is empty}
+	 *
+	 * @param sectionIndex the index of the section
+	 */
+	public @Nullable PalettedContainer<BlockState> getSection(int sectionIndex) {
+		return this.blockStates[sectionIndex];
+	}
+
+	/**
+	 * {@return the block state at the given position, air outside the chunk and in empty sections}
+	 *
+	 * @param localX the X-coordinate of the column in the chunk
+	 * @param y the Y-coordinate
+	 * @param localZ the Z-coordinate of the column in the chunk
+	 */
+	public BlockState getBlockState(int localX, int y, int localZ) {
+		if (y < this.bottomY || y >= this.topY)
+			return Blocks.AIR.getDefaultState();
+
+		var section = this.blockStates[this.getSectionIndex(y)];
+		if (section == null)
+			return Blocks.AIR.getDefaultState();
+		return section.get(localX, y & 15, localZ);
+	}
+
+	/**
+	 * Returns the biome stored at the given position, without the blending of {@link net.minecraft.world.biome.source.BiomeAccess}.
+	 *
+	 * @param localX the X-coordinate of the column in the chunk
+	 * @param y the Y-coordinate
+	 * @param localZ the Z-coordinate of the column in the chunk
+	 * @return the biome
+	 * @throws IllegalStateException if the biomes haven't been copied
+	 */
+	public Biome getBiome(int localX, int y, int localZ) {
+		if (this.biomes == null)
+			throw new IllegalStateException("The biomes of the chunk haven't been copied.");
+
+		y = MathHelper.clamp(y, this.bottomY, this.topY - 1);
+		var biomes = this.biomes[this.getSectionIndex(y)];
+		return biomes.get(localX >> 2, (y & 15) >> 2, localZ >> 2).value();
+	}
+
+	/**
+	 * {@return the height of the surface heightmap in the given column}
+	 *
+	 * @param index the index of the column
+	 */
+	public int getSurfaceHeight(int index) {
+		return this.surfaceHeights[index];
+	}
+
+	/**
+	 * {@return the height of the first air block below the ceiling in the given column,
+	 * or {@link WorldChunkExtension#NO_CEILING_AIR} if it isn't known}
+	 *
+	 * @param index the index of the column
+	 */
+	public int getCeilingAir(int index) {
+		return this.ceilingAir[index];
+	}
+
+	public void setCeilingAir(int index, int airY) {
+		this.ceilingAir[index] = airY;
+	}
+
+	/**
+	 * Publishes the known heights of the first air block below the ceiling to the given chunk, on the client thread.
+	 * <p>
+	 * The columns which have been marked dirty since the snapshot was taken are skipped, their heights may be outdated.
+	 *
+	 * @param chunk the chunk this snapshot has been taken from
+	 * @param scanHeight the height the search started from
+	 */
+	public void publishCeilingAir(WorldChunk chunk, int scanHeight) {
+		var extension = (WorldChunkExtension) chunk;
+		long[] dirtyColumns = extension.lambdamap$getDirtyColumns();
+		for (int index = 0; index < 256; index++) {
+			if (this.ceilingAir[index] != WorldChunkExtension.NO_CEILING_AIR
+					&& (dirtyColumns[index >> 6] & (1L << (index & 63))) == 0) {
+				extension.lambdamap$cacheCeilingAir(index, scanHeight, this.ceilingAir[index]);
+			}
+		}
+	}
+}
@@ -21,12 +21,15 @@ import dev.lambdaurora.lambdamap.extension.WorldChunkExtension;
 import dev.lambdaurora.lambdamap.gui.WorldMapRenderer;
 import dev.lambdaurora.lambdamap.gui.WorldMapScreen;
 import dev.lambdaurora.lambdamap.gui.hud.MapHud;
+import dev.lambdaurora.lambdamap.map.BlockStateTable;
+import dev.lambdaurora.lambdamap.map.MapChunk;
 import dev.lambdaurora.lambdamap.map.WorldMap;
 import dev.lambdaurora.lambdamap.mixin.BiomeAccessAccessor;
 import dev.lambdaurora.lambdamap.mixin.PersistentStateManagerAccessor;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
 import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
-import net.minecraft.block.MapColor;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.KeyBind;
 import net.minecraft.client.render.LightmapTextureManager;
@@ -34,22 +37,24 @@ import net.minecraft.client.render.RenderLayer;
 import net.minecraft.client.world.ClientWorld;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.registry.RegistryKey;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.ChunkSectionPos;
-import net.minecraft.world.Heightmap;
 import net.minecraft.world.World;
-import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.ChunkStatus;
 import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.glfw.GLFW;
 import org.quiltmc.loader.api.ModContainer;
 import org.quiltmc.loader.api.QuiltLoader;
 import org.quiltmc.qsl.base.api.entrypoint.client.ClientModInitializer;
 import org.quiltmc.qsl.lifecycle.api.client.event.ClientLifecycleEvents;
 import org.quiltmc.qsl.lifecycle.api.client.event.ClientWorldTickEvents;
+import org.quiltmc.qsl.resource.loader.api.ResourceLoader;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * Represents the LambdaMap mod.
@@ -64,19 +69,31 @@ public class LambdaMap implements ClientModInitializer, ClientLifecycleEvents.Re
 	public static final String NAMESPACE = "lambdamap";
 	public static final Identifier MAP_ICONS_TEXTURE = new Identifier("textures/map/map_icons.png");
 	public static final RenderLayer MAP_ICONS = RenderLayer.getText(MAP_ICONS_TEXTURE);
+	/**
+	 * The distance in blocks the player has to go past the bounds of the current cave layer to switch layer.
+	 */
+	private static final int LAYER_SWITCH_MARGIN = 2;
 	private final KeyBind hudKeybind = KeyBindingHelper.registerKeyBinding(new KeyBind("lambdamap.keybind.hud", GLFW.GLFW_KEY_O, "key.categories.lambdamap"));
 	private final KeyBind mapKeybind = KeyBindingHelper.registerKeyBinding(new KeyBind("lambdamap.keybind.map", GLFW.GLFW_KEY_B, "key.categories.lambdamap"));
 	private final LambdaMapConfig config = new LambdaMapConfig(this);
 	private final WorldMapRenderer renderer = new WorldMapRenderer(this);
+	private final ChunkRasterizer rasterizer = new ChunkRasterizer(this);
+	private final BlockStateTable blockStateTable = new BlockStateTable();
 	private WorldMap map = null;
 	public MapHud hud = null;
 
+	/**
+	 * Stores the packed positions of the dirty world chunks, filled from the network handler on the client thread.
+	 */
+	private final LongSet dirtyChunks = new LongOpenHashSet();
 	private int updatedChunks = 0;
 
 	@Override
 	public void onInitializeClient(ModContainer mod) {
 		this.config.load();
 
+		ResourceLoader.get(ResourceType.CLIENT_RESOURCES).registerReloader(this.blockStateTable);
+
 		HudRenderCallback.EVENT.register((matrices, delta) -> {
 			this.hud.render(matrices, LightmapTextureManager.pack(15, 15), delta);
 		});
@@ -99,6 +116,13 @@ public class LambdaMap implements ClientModInitializer, ClientLifecycleEvents.Re
 		return this.renderer;
 	}
 
+	/**
+	 * {@return the table of the map-related properties of block states}
+	 */
+	public BlockStateTable getBlockStateTable() {
+		return this.blockStateTable;
+	}
+
 	@Override
 	public void readyClient(MinecraftClient client) {
 		this.hud = new MapHud(this.config, client);
@@ -107,9 +131,15 @@ public class LambdaMap implements ClientModInitializer, ClientLifecycleEvents.Re
 	@Override
 	public void startWorldTick(MinecraftClient client, ClientWorld world) {
 		if (this.map.updatePlayerViewPos(client.player.getBlockX(), client.player.getBlockZ(), this.hud.getMovementThreshold())) {
-			this.hud.markDirty();
+			this.hud.markMoved();
 		}
 
+		int layer = this.getWantedLayer(world, client.player);
+		if (layer != this.map.getLayer() && !(client.currentScreen instanceof WorldMapScreen)) {
+			this.switchLayer(client, world, layer);
+		}
+
+		this.map.getPrefetcher().tick(client.player);
 		this.map.tick();
 		this.updateChunks(world, client.player);
 
@@ -125,15 +155,12 @@ public class LambdaMap implements ClientModInitializer, ClientLifecycleEvents.Re
 	}
 
 	public void loadMap(MinecraftClient client, ClientWorld world) {
-		File directory;
-		if (client.getServer() != null) {
-			directory = getWorldMapDirectorySP(client, world.getRegistryKey());
-		} else {
-			var hashedSeed = ((BiomeAccessAccessor) world.getBiomeAccess()).getSeed();
-			directory = getWorldMapDirectoryMP(client, world.getRegistryKey(), hashedSeed);
-		}
-		this.map = new WorldMap(world, directory);
+		this.map = new WorldMap(world, getWorldMapDirectory(client, world));
+		this.dirtyChunks.clear();
 		this.renderer.setWorldMap(this.map);
+
+		// The world chunks may already be loaded, for example when respawning in the same dimension.
+		this.trackLoadedChunks(client, world, false);
 	}
 
 	public void unloadMap() {
@@ -141,141 +168,212 @@ public class LambdaMap implements ClientModInitializer, ClientLifecycleEvents.Re
 			this.map.unload();
 			this.map = null;
 		}
+		this.dirtyChunks.clear();
 	}
 
-	public void onBlockUpdate(int x, int z) {
-		int chunkX = ChunkSectionPos.getSectionCoord(x);
-		int chunkZ = ChunkSectionPos.getSectionCoord(z);
-		int localX = ChunkSectionPos.getLocalCoord(x);
-		int localZ = ChunkSectionPos.getLocalCoord(z);
+	/**
+	 * Returns the cave layer the map should show, if the world has a ceiling and cave layers are enabled.
+	 * <p>
+	 * The current layer is kept while the player stays close to its bounds, to avoid switching back and forth.
+	 *
+	 * @param world the world
+	 * @param player the player
+	 * @return the cave layer, or {@link WorldMap#NO_LAYER}
+	 */
+	private int getWantedLayer(World world, PlayerEntity player) {
+		if (!this.config.useCaveLayers() || !world.getDimension().hasCeiling())
+			return WorldMap.NO_LAYER;
+
+		int y = player.getBlockY();
+		int current = this.map.getLayer();
+		if (current != WorldMap.NO_LAYER) {
+			int bottomY = current * WorldMap.LAYER_HEIGHT;
+			if (y >= bottomY - LAYER_SWITCH_MARGIN && y < bottomY + WorldMap.LAYER_HEIGHT + LAYER_SWITCH_MARGIN)
+				return current;
+		}
 
-		if (localX >= 2 && localX < 14 && localZ >= 2 && localZ < 14) {
-			var chunk = this.map.getWorld().getChunk(chunkX, chunkZ);
-			if (chunk != null) {
-				((WorldChunkExtension) chunk).lambdamap$markDirty();
-			}
-		} else this.onChunkUpdate(chunkX, chunkZ);
+		return WorldMap.getLayer(y);
 	}
 
-	public void onChunkUpdate(int chunkX, int chunkZ) {
-		for (int x = chunkX - 1; x < chunkX + 2; ++x) {
-			for (int z = chunkZ - 1; z < chunkZ + 2; ++z) {
-				var chunk = this.map.getWorld().getChunk(x, z);
-				if (chunk != null) {
-					((WorldChunkExtension) chunk).lambdamap$markDirty();
+	/**
+	 * Switches the map to the given cave layer, the loaded chunks around the player are then rasterized into it.
+	 * <p>
+	 * If the region files of the given layer are still being closed, the switch is retried on the next ticks.
+	 *
+	 * @param client the client
+	 * @param world the world
+	 * @param layer the cave layer, or {@link WorldMap#NO_LAYER}
+	 */
+	private void switchLayer(MinecraftClient client, ClientWorld world, int layer) {
+		if (!this.map.switchLayer(layer))
+			return;
+
+		this.dirtyChunks.clear();
+		this.renderer.setWorldMap(this.map);
+
+		// The loaded chunks are already mapped in the previous layer, they have to be rasterized again.
+		this.trackLoadedChunks(client, world, true);
+
+		this.hud.markDirty();
+	}
+
+	/**
+	 * Adds the loaded world chunks around the player to the dirty chunks to rasterize.
+	 *
+	 * @param client the client
+	 * @param world the world
+	 * @param markDirty {@code true} to mark every loaded chunk dirty,
+	 * or {@code false} to only track the chunks which are already dirty
+	 */
+	private void trackLoadedChunks(MinecraftClient client, ClientWorld world, boolean markDirty) {
+		if (client.player == null)
+			return;
+
+		var pos = client.player.getChunkPos();
+		int viewDistance = client.options.getEffectiveViewDistance();
+		for (int z = pos.z - viewDistance; z <= pos.z + viewDistance; z++) {
+			for (int x = pos.x - viewDistance; x <= pos.x + viewDistance; x++) {
+				if (!world.getChunkManager().isChunkLoaded(x, z))
+					continue;
+
+				if (markDirty) {
+					this.markChunkDirty(x, z);
+				} else if (((WorldChunkExtension) world.getChunk(x, z)).lambdamap$isDirty()) {
+					this.dirtyChunks.add(ChunkPos.toLong(x, z));
 				}
 			}
 		}
 	}
 
-	public void updateChunks(World world, PlayerEntity entity) {
-		var pos = entity.getChunkPos();
-		var client = MinecraftClient.getInstance();
-		int viewDistance = Math.max(2, client.options.getEffectiveViewDistance() - 2);
-		this.updatedChunks = 0;
-		for (int x = pos.x - viewDistance; x <= pos.x + viewDistance; x++) {
-			for (int z = pos.z - viewDistance; z <= pos.z + viewDistance; z++) {
-				this.updateChunk(world, x, z);
-			}
+	/**
+	 * Called when a map chunk finished loading asynchronously.
+	 *
+	 * @param chunk the loaded map chunk
+	 */
+	public void onMapChunkLoaded(MapChunk chunk) {
+		if (this.hud != null) {
+			// The water colors around the chunk are blended with it.
+			this.hud.markDirty(chunk.getStartX() - WorldMap.WATER_BLEND_RADIUS, chunk.getStartZ() - WorldMap.WATER_BLEND_RADIUS,
+					chunk.getStartX() + 127 + WorldMap.WATER_BLEND_RADIUS, chunk.getStartZ() + 127 + WorldMap.WATER_BLEND_RADIUS);
 		}
+		this.renderer.onChunkLoaded(chunk.getX(), chunk.getZ());
 	}
 
-	public void updateChunk(World world, int chunkX, int chunkZ) {
-		int chunkStartX = ChunkSectionPos.getBlockCoord(chunkX);
-		int chunkStartZ = ChunkSectionPos.getBlockCoord(chunkZ);
-		int mapChunkStartX = chunkStartX & 127;
-		int mapChunkStartZ = chunkStartZ & 127;
+	public void onBlockUpdate(int x, int z) {
+		this.markColumnDirty(x, z);
+		// The shade of the column south of the updated one depends on its height.
+		this.markColumnDirty(x, z + 1);
+	}
 
-		// Big thanks to comp500 for this piece of code
-		// https://github.com/comp500/tinymap/blob/master/src/main/java/link/infra/tinymap/TileGenerator.java#L103
-		var searcher = new BlockSearcher(world);
-		boolean hasCeiling = world.getDimension().hasCeiling();
+	public void onChunkUpdate(int chunkX, int chunkZ) {
+		for (int x = chunkX - 1; x < chunkX + 2; ++x) {
+			for (int z = chunkZ - 1; z < chunkZ + 2; ++z) {
+				this.markChunkDirty(x, z);
+			}
+		}
+	}
 
-		var chunkBefore = (WorldChunk) world.getChunk(chunkX, chunkZ - 1, ChunkStatus.SURFACE, false);
-		var chunkPosBefore = new ChunkPos(chunkX, chunkZ - 1);
-		Heightmap chunkBeforeHeightmap;
-		if (chunkBefore != null) chunkBeforeHeightmap = chunkBefore.getHeightmap(Heightmap.Type.WORLD_SURFACE);
-		else return;
+	private void markColumnDirty(int x, int z) {
+		int chunkX = ChunkSectionPos.getSectionCoord(x);
+		int chunkZ = ChunkSectionPos.getSectionCoord(z);
+		var chunk = this.map.getWorld().getChunk(chunkX, chunkZ);
+		if (chunk != null) {
+			((WorldChunkExtension) chunk).lambdamap$markColumnDirty(ChunkSectionPos.getLocalCoord(x), ChunkSectionPos.getLocalCoord(z));
+			this.dirtyChunks.add(ChunkPos.toLong(chunkX, chunkZ));
+		}
+	}
 
-		int[] lastHeights = new int[16];
+	private void markChunkDirty(int chunkX, int chunkZ) {
+		var chunk = this.map.getWorld().getChunk(chunkX, chunkZ);
+		if (chunk != null) {
+			((WorldChunkExtension) chunk).lambdamap$markDirty();
+			this.dirtyChunks.add(ChunkPos.toLong(chunkX, chunkZ));
+		}
+	}
 
-		var chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.SURFACE, false);
-		if (chunk == null)
+	public void updateChunks(World world, PlayerEntity entity) {
+		if (this.dirtyChunks.isEmpty() && !this.rasterizer.hasPendingChunks()) {
+			this.updatedChunks = 0;
 			return;
-
-		if (chunk instanceof WorldChunkExtension extendedChunk) {
-			if (!extendedChunk.lambdamap$isDirty())
-				return;
 		}
 
-		this.updatedChunks++;
-
-		var chunkHeightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
-
-		var mapChunk = this.map.getChunkOrCreate(chunkX >> 3, chunkZ >> 3);
+		var pos = entity.getChunkPos();
+		var client = MinecraftClient.getInstance();
+		int viewDistance = Math.max(2, client.options.getEffectiveViewDistance() - 2);
 
-		for (int xOffset = 0; xOffset < 16; xOffset++) {
-			if (!chunkBefore.isEmpty()) {
-				// Get first line, to calculate proper shade
-				if (hasCeiling) {
-					searcher.searchForBlockCeil(chunkBefore, xOffset, 15, chunkPosBefore.getStartX(), chunkPosBefore.getStartZ());
-				} else {
-					searcher.searchForBlock(chunkBefore, chunkBeforeHeightmap, xOffset, 15, chunkPosBefore.getStartX(), chunkPosBefore.getStartZ());
-				}
-				lastHeights[xOffset] = searcher.getHeight();
+		// While the world map is open, the chunks close to its viewport are as important as the ones close to the player.
+		boolean hasViewport = client.currentScreen instanceof WorldMapScreen;
+		int viewportX = ChunkSectionPos.getSectionCoord(this.map.getViewX());
+		int viewportZ = ChunkSectionPos.getSectionCoord(this.map.getViewZ());
+
+		var tasks = new ArrayList<ChunkRasterizer.Task>();
+		var it = this.dirtyChunks.iterator();
+		while (it.hasNext()) {
+			long chunkPos = it.nextLong();
+			int x = ChunkPos.getPackedX(chunkPos);
+			int z = ChunkPos.getPackedZ(chunkPos);
+
+			var chunk = world.getChunk(x, z, ChunkStatus.SURFACE, false);
+			if (!(chunk instanceof WorldChunk worldChunk) || !((WorldChunkExtension) worldChunk).lambdamap$isDirty()) {
+				// The chunk has been unloaded, or updated already.
+				it.remove();
+				continue;
 			}
 
-			for (int zOffset = 0; zOffset < 16; zOffset++) {
-				if (hasCeiling) {
-					searcher.searchForBlockCeil(chunk, xOffset, zOffset, chunkStartX, chunkStartZ);
-				} else {
-					searcher.searchForBlock(chunk, chunkHeightmap, xOffset, zOffset, chunkStartX, chunkStartZ);
-				}
+			// Chunks out of the view stay dirty until the player comes closer.
+			if (Math.abs(x - pos.x) > viewDistance || Math.abs(z - pos.z) > viewDistance)
+				continue;
 
-				if (searcher.getHeight() > 0 && !searcher.getState().getFluidState().isEmpty()) {
-					searcher.calcWaterDepth(chunk);
-				}
+			int priority = getSquaredDistance(x, z, pos.x, pos.z);
+			if (hasViewport)
+				priority = Math.min(priority, getSquaredDistance(x, z, viewportX, viewportZ));
 
-				var mapColor = searcher.getState().getMapColor(world, searcher.pos);
-				Biome biome = null;
-				if (chunk instanceof WorldChunkExtension extendedChunk && extendedChunk.lambdamap$isBiomeDirty()) {
-					biome = world.getBiome(searcher.pos).value();
-				}
+			var task = this.getChunkUpdate(world, worldChunk, priority);
+			if (task != null)
+				tasks.add(task);
+		}
 
-				int shade;
-
-				if (mapColor == MapColor.WATER) {
-					double shadeTest = (double) searcher.getWaterDepth() * 0.1D + (double) (xOffset + zOffset & 1) * 0.2D;
-					shade = 1;
-					if (shadeTest < 0.5D) {
-						shade = 2;
-					}
-
-					if (shadeTest > 0.9D) {
-						shade = 0;
-					}
-				} else {
-					double shadeTest = (searcher.getHeight() - lastHeights[xOffset]) * 4.0D / 5.0D + ((double) (xOffset + zOffset & 1) - 0.5D) * 0.4D;
-					shade = 1;
-					if (shadeTest > 0.6D) {
-						shade = 2;
-					}
-					if (shadeTest < -0.6D) {
-						shade = 0;
-					}
-				}
+		// Even without dirty chunks, the results of the chunks being rasterized are applied.
+		tasks.sort(ChunkRasterizer.Task.PRIORITY_ORDER);
+		this.updatedChunks = this.rasterizer.rasterize(world, this.map, tasks);
 
-				lastHeights[xOffset] = searcher.getHeight();
-				int x = mapChunkStartX + xOffset;
-				int z = mapChunkStartZ + zOffset;
-				if (mapChunk.putPixelAndPreserve(x, z, (byte) (mapColor.id * 4 + shade), biome, searcher.getState())) {
-					this.hud.markDirty();
-				}
-			}
+		for (var task : tasks) {
+			// The dirty columns of the rasterized chunks have been taken.
+			if (!((WorldChunkExtension) task.getChunk()).lambdamap$isDirty())
+				this.dirtyChunks.remove(task.getChunk().getPos().toLong());
 		}
+	}
+
+	private static int getSquaredDistance(int x, int z, int originX, int originZ) {
+		int deltaX = x - originX;
+		int deltaZ = z - originZ;
+		return deltaX * deltaX + deltaZ * deltaZ;
+	}
 
-		if (chunk instanceof WorldChunkExtension extendedChunk) {
-			extendedChunk.lambdamap$markClean();
+	/**
+	 * Returns the rasterization task of the given dirty chunk if it can be rasterized.
+	 *
+	 * @param world the world
+	 * @param chunk the dirty chunk
+	 * @param priority the priority of the update, lower values are updated first
+	 * @return the rasterization task if the chunk can be rasterized, else {@code null}
+	 */
+	private @Nullable ChunkRasterizer.Task getChunkUpdate(World world, WorldChunk chunk, int priority) {
+		// The chunk before is needed to shade the first row.
+		var pos = chunk.getPos();
+		var chunkBefore = world.getChunk(pos.x, pos.z - 1, ChunkStatus.SURFACE, false);
+		if (!(chunkBefore instanceof WorldChunk worldChunkBefore))
+			return null;
+
+		return new ChunkRasterizer.Task(chunk, worldChunkBefore, priority);
+	}
+
+	private static File getWorldMapDirectory(MinecraftClient client, ClientWorld world) {
+		if (client.getServer() != null) {
+			return getWorldMapDirectorySP(client, world.getRegistryKey());
+		} else {
+			var hashedSeed = ((BiomeAccessAccessor) world.getBiomeAccess()).getSeed();
+			return getWorldMapDirectoryMP(client, world.getRegistryKey(), hashedSeed);
 		}
 	}
 
@@ -49,6 +49,14 @@ public final class LambdaMapConfig {
 	private static final int DEFAULT_HUD_SCALE = 2;
 	private static final boolean DEFAULT_SHOW_DIRECTION_INDICATORS = true;
 	private static final boolean DEFAULT_NORTH_LOCK = false;
+	private static final int DEFAULT_UPDATE_BUDGET = 8;
+	private static final int DEFAULT_CEILING_SCAN_HEIGHT = 85;
+	private static final boolean DEFAULT_CAVE_LAYERS = false;
+	private static final boolean DEFAULT_MEMORY_MAPPED_REGIONS = false;
+	private static final int DEFAULT_MAX_LOADED_CHUNKS = 0;
+	private static final int DEFAULT_AUTOSAVE_INTERVAL = 60;
+	private static final int MIN_AUTOSAVE_INTERVAL = 5;
+	private static final int DEFAULT_AUTOSAVE_MAX_CHUNKS = 64;
 
 	public static final Path CONFIG_FILE_PATH = Paths.get(LambdaMap.NAMESPACE, "config.toml");
 
@@ -71,6 +79,13 @@ public final class LambdaMapConfig {
 	private boolean northLock;
 	private boolean showDirectionIndicators;
 	private HudDecorator hudDecorator;
+	private int updateBudget;
+	private int ceilingScanHeight;
+	private boolean caveLayers;
+	private boolean memoryMappedRegions;
+	private int maxLoadedChunks;
+	private int autosaveInterval;
+	private int autosaveMaxChunks;
 
 	public LambdaMapConfig(LambdaMap mod) {
 		this.mod = mod;
@@ -128,6 +143,13 @@ public final class LambdaMapConfig {
 				}).map(HudDecorators::get)
 				.orElse(HudDecorators.MAP);
 		this.worldMapFullscreen = this.config.getOrElse("map.config.world_map.fullscreen", DEFAULT_FULLSCREEN);
+		this.updateBudget = MathHelper.clamp(this.config.getIntOrElse("map.update_budget", DEFAULT_UPDATE_BUDGET), 1, 50);
+		this.ceilingScanHeight = this.config.getIntOrElse("map.ceiling.scan_height", DEFAULT_CEILING_SCAN_HEIGHT);
+		this.caveLayers = this.config.getOrElse("map.ceiling.cave_layers", DEFAULT_CAVE_LAYERS);
+		this.memoryMappedRegions = this.config.getOrElse("storage.memory_mapped", DEFAULT_MEMORY_MAPPED_REGIONS);
+		this.maxLoadedChunks = Math.max(0, this.config.getIntOrElse("storage.max_loaded_chunks", DEFAULT_MAX_LOADED_CHUNKS));
+		this.autosaveInterval = Math.max(MIN_AUTOSAVE_INTERVAL, this.config.getIntOrElse("storage.autosave.interval", DEFAULT_AUTOSAVE_INTERVAL));
+		this.autosaveMaxChunks = Math.max(1, this.config.getIntOrElse("storage.autosave.max_chunks", DEFAULT_AUTOSAVE_MAX_CHUNKS));
 
 		LOGGER.info("Configuration loaded.");
 	}
@@ -149,6 +171,13 @@ public final class LambdaMapConfig {
 		this.setNorthLock(DEFAULT_NORTH_LOCK);
 		this.setDirectionIndicatorsVisible(DEFAULT_SHOW_DIRECTION_INDICATORS);
 		this.setHudDecorator(HudDecorators.MAP);
+		this.setUpdateBudget(DEFAULT_UPDATE_BUDGET);
+		this.setCeilingScanHeight(DEFAULT_CEILING_SCAN_HEIGHT);
+		this.setCaveLayers(DEFAULT_CAVE_LAYERS);
+		this.setMemoryMappedRegions(DEFAULT_MEMORY_MAPPED_REGIONS);
+		this.setMaxLoadedChunks(DEFAULT_MAX_LOADED_CHUNKS);
+		this.setAutosaveInterval(DEFAULT_AUTOSAVE_INTERVAL);
+		this.setAutosaveMaxChunks(DEFAULT_AUTOSAVE_MAX_CHUNKS);
 	}
 
 	public boolean shouldRenderBiomeColors() {
@@ -262,4 +291,137 @@ public final class LambdaMapConfig {
 	public Boolean isWorldMapFullscreen() {
 		return this.worldMapFullscreen;
 	}
+
+	/**
+	 * {@return the time budget in milliseconds given each tick to the update of the map from dirty chunks}
+	 */
+	public int getUpdateBudget() {
+		return this.updateBudget;
+	}
+
+	/**
+	 * Sets the time budget in milliseconds given each tick to the update of the map from dirty chunks.
+	 * <p>
+	 * The chunks which don't fit in the budget are updated on the next ticks, the closest ones first.
+	 *
+	 * @param updateBudget the time budget in milliseconds, between 1 and 50
+	 */
+	public void setUpdateBudget(@Range(from = 1, to = 50) int updateBudget) {
+		this.updateBudget = MathHelper.clamp(updateBudget, 1, 50);
+		this.config.set("map.update_budget", this.updateBudget);
+	}
+
+	/**
+	 * {@return the height the map search starts from in dimensions with a ceiling}
+	 */
+	public int getCeilingScanHeight() {
+		return this.ceilingScanHeight;
+	}
+
+	/**
+	 * Sets the height the map search starts from in dimensions with a ceiling.
+	 * <p>
+	 * The map shows the first blocks found below the first air block under this height.
+	 *
+	 * @param scanHeight the scan height
+	 */
+	public void setCeilingScanHeight(int scanHeight) {
+		this.ceilingScanHeight = scanHeight;
+		this.config.set("map.ceiling.scan_height", scanHeight);
+	}
+
+	/**
+	 * {@return {@code true} if dimensions with a ceiling are mapped in layers relative to the player height, otherwise {@code false}}
+	 */
+	public boolean useCaveLayers() {
+		return this.caveLayers;
+	}
+
+	/**
+	 * Sets whether dimensions with a ceiling are mapped in layers relative to the player height.
+	 * <p>
+	 * Each layer is stored separately, and replaces the configured scan height by the top of the layer of the player.
+	 *
+	 * @param caveLayers {@code true} to map in layers, or {@code false} to map from the configured scan height
+	 */
+	public void setCaveLayers(boolean caveLayers) {
+		this.caveLayers = caveLayers;
+		this.config.set("map.ceiling.cave_layers", caveLayers);
+	}
+
+	/**
+	 * {@return {@code true} if region files are accessed through memory mapping, otherwise {@code false}}
+	 */
+	public boolean useMemoryMappedRegions() {
+		return this.memoryMappedRegions;
+	}
+
+	/**
+	 * Sets whether region files are accessed through memory mapping.
+	 * <p>
+	 * Only applies to region files opened afterwards.
+	 * Mapped region files are never trimmed, they stay padded to a multiple of 64 KiB.
+	 *
+	 * @param memoryMapped {@code true} to map region files in memory, or {@code false} to use regular file I/O
+	 */
+	public void setMemoryMappedRegions(boolean memoryMapped) {
+		this.memoryMappedRegions = memoryMapped;
+		this.config.set("storage.memory_mapped", memoryMapped);
+	}
+
+	/**
+	 * {@return the maximum amount of map chunks kept in memory, or {@code 0} if sized from the areas pinned by the map views}
+	 */
+	public int getMaxLoadedChunks() {
+		return this.maxLoadedChunks;
+	}
+
+	/**
+	 * Sets the maximum amount of map chunks kept in memory.
+	 * <p>
+	 * Each map chunk takes around 32 KiB, chunks around the player are kept loaded regardless of this limit.
+	 * The limit is raised to the amount of chunks the map views may pin if lower.
+	 *
+	 * @param maxLoadedChunks the maximum amount of map chunks, or {@code 0} to size it from the areas pinned by the map views
+	 */
+	public void setMaxLoadedChunks(int maxLoadedChunks) {
+		this.maxLoadedChunks = Math.max(0, maxLoadedChunks);
+		this.config.set("storage.max_loaded_chunks", this.maxLoadedChunks);
+	}
+
+	/**
+	 * {@return the interval in seconds between two autosaves of the dirty map chunks}
+	 */
+	public int getAutosaveInterval() {
+		return this.autosaveInterval;
+	}
+
+	/**
+	 * Sets the interval in seconds between two autosaves of the dirty map chunks.
+	 * <p>
+	 * Only applies to worlds joined afterwards.
+	 *
+	 * @param interval the interval in seconds
+	 */
+	public void setAutosaveInterval(int interval) {
+		this.autosaveInterval = Math.max(MIN_AUTOSAVE_INTERVAL, interval);
+		this.config.set("storage.autosave.interval", this.autosaveInterval);
+	}
+
+	/**
+	 * {@return the maximum amount of dirty map chunks saved per autosave}
+	 */
+	public int getAutosaveMaxChunks() {
+		return this.autosaveMaxChunks;
+	}
+
+	/**
+	 * Sets the maximum amount of dirty map chunks saved per autosave, the remaining ones are saved by the next autosaves.
+	 *
+	 * @param maxChunks the maximum amount of map chunks
+	 */
+	public void setAutosaveMaxChunks(int maxChunks) {
+		this.autosaveMaxChunks = Math.max(1, maxChunks);
+		this.config.set("storage.autosave.max_chunks", this.autosaveMaxChunks);
+	}
 }
@@ -17,11 +17,69 @@
 
 package dev.lambdaurora.lambdamap.extension;
 
+/**
+ * Represents the map-related state added to world chunks.
+ * <p>
+ * Dirty columns are tracked in a 256-bit mask, indexed by {@link dev.lambdaurora.lambdamap.ChunkRasterizer#getColumnIndex(int, int)}.
+ * <p>
+ * In dimensions with a ceiling, the height of the first air block below the ceiling is also cached per column,
+ * the cache of a column is invalidated when it is marked as dirty.
+ */
 public interface WorldChunkExtension {
+	/**
+	 * The value returned when the height of the first air block below the ceiling isn't cached.
+	 */
+	int NO_CEILING_AIR = Integer.MIN_VALUE;
+
+	/**
+	 * {@return {@code true} if at least one column of this chunk is dirty, otherwise {@code false}}
+	 */
 	boolean lambdamap$isDirty();
+
 	boolean lambdamap$isBiomeDirty();
 
+	/**
+	 * Marks every column of this chunk as dirty.
+	 */
 	void lambdamap$markDirty();
 
-	void lambdamap$markClean();
+	/**
+	 * Marks a single column of this chunk as dirty.
+	 *
+	 * @param x the X-coordinate of the column in the chunk
+	 * @param z the Z-coordinate of the column in the chunk
+	 */
+	void lambdamap$markColumnDirty(int x, int z);
+
+	/**
+	 * {@return a copy of the mask of the dirty columns}
+	 */
+	long[] lambdamap$getDirtyColumns();
+
+	/**
+	 * Marks the given columns as clean, along with the biomes of this chunk once no column is dirty anymore.
+	 *
+	 * @param columns the mask of the columns which have been updated
+	 */
+	void lambdamap$markClean(long[] columns);
+
+	/**
+	 * Returns the cached height of the first air block below the ceiling in the given column.
+	 *
+	 * @param index the index of the column
+	 * @param scanHeight the height the search started from
+	 * @return the cached height, or {@link #NO_CEILING_AIR} if it isn't cached for this scan height
+	 */
+	int lambdamap$getCeilingAir(int index, int scanHeight);
+
+	/**
+	 * Caches the height of the first air block below the ceiling in the given column.
+	 * <p>
+	 * Only called from the client thread, rasterization workers search the snapshots of the chunks.
+	 *
+	 * @param index the index of the column
+	 * @param scanHeight the height the search started from
+	 * @param airY the height of the first air block
+	 */
+	void lambdamap$cacheCeilingAir(int index, int scanHeight, int airY);
 }
@@ -20,7 +20,6 @@ package dev.lambdaurora.lambdamap.gui;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.VertexConsumer;
 import dev.lambdaurora.lambdamap.LambdaMap;
-import dev.lambdaurora.lambdamap.map.ChunkGetterMode;
 import dev.lambdaurora.lambdamap.map.MapChunk;
 import dev.lambdaurora.lambdamap.map.WorldMap;
 import dev.lambdaurora.lambdamap.map.marker.MarkerType;
@@ -30,13 +29,12 @@ import net.minecraft.client.render.LightmapTextureManager;
 import net.minecraft.client.render.RenderLayer;
 import net.minecraft.client.render.VertexConsumerProvider;
 import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.util.Identifier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joml.Matrix4f;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.Arrays;
 
 /**
  * Represents the world map renderer.
@@ -48,11 +46,6 @@ import java.util.Objects;
 public class WorldMapRenderer {
 	private static final Logger LOGGER = LogManager.getLogger();
 
-	/**
-	 * Stores all the registered world map chunk textures.
-	 */
-	private static final List<ChunkTexture> TEXTURES = new ArrayList<>();
-
 	private int width;
 	private int height;
 
@@ -64,6 +57,7 @@ public class WorldMapRenderer {
 	private int cornerViewZ;
 
 	private int scale = 1;
+	private boolean pendingUpdate = false;
 
 	public WorldMapRenderer(LambdaMap mod) {
 
@@ -87,7 +81,13 @@ public class WorldMapRenderer {
 		int texturesX = this.width / 128 + 2;
 		int texturesZ = this.height / 128 + 2;
 
-		this.textureManager = new ChunkTextureManager(texturesZ, texturesX);
+		if (this.textureManager == null || !this.textureManager.hasSize(texturesX, texturesZ)) {
+			if (this.textureManager != null)
+				this.textureManager.close();
+			this.textureManager = new ChunkTextureManager(texturesX, texturesZ);
+		} else {
+			this.textureManager.invalidateAll();
+		}
 	}
 
 	public void scale(int scale) {
@@ -174,30 +174,9 @@ public class WorldMapRenderer {
 		x -= (this.scaledWidth() / 2);
 		z -= (this.scaledHeight() / 2);
 
-		boolean shouldUpdate = false;
-		if (this.cornerViewX != x && this.textureManager != null) {
-			int oldChunkX = this.getCornerMapChunkX();
-			int newChunkX = MapChunk.blockToChunk((int) x);
-
-			if (oldChunkX != newChunkX) {
-				int offset = Math.abs(newChunkX - oldChunkX);
-				if (newChunkX < oldChunkX) for (int i = 0; i < offset; i++) this.textureManager.shiftRight();
-				else for (int i = 0; i < offset; i++) this.textureManager.shiftLeft();
-				shouldUpdate = true;
-			}
-		}
-
-		if (this.cornerViewZ != z && this.textureManager != null) {
-			int oldChunkZ = this.getCornerMapChunkZ();
-			int newChunkZ = MapChunk.blockToChunk((int) z);
-
-			if (oldChunkZ != newChunkZ) {
-				int offset = Math.abs(newChunkZ - oldChunkZ);
-				if (newChunkZ < oldChunkZ) for (int i = 0; i < offset; i++) this.textureManager.shiftDown();
-				else for (int i = 0; i < offset; i++) this.textureManager.shiftUp();
-				shouldUpdate = true;
-			}
-		}
+		// The tiles stay where they are in the atlas, only the newly exposed ones have to be drawn.
+		boolean shouldUpdate = this.getCornerMapChunkX() != MapChunk.blockToChunk((int) x)
+				|| this.getCornerMapChunkZ() != MapChunk.blockToChunk((int) z);
 
 		this.cornerViewX = (int) x;
 		this.cornerViewZ = (int) z;
@@ -212,7 +191,24 @@ public class WorldMapRenderer {
 		}
 	}
 
+	/**
+	 * Called when a map chunk finished loading asynchronously, schedules the redraw of the textures covering it.
+	 *
+	 * @param chunkX the map chunk X-coordinate
+	 * @param chunkZ the map chunk Z-coordinate
+	 */
+	public void onChunkLoaded(int chunkX, int chunkZ) {
+		if (this.textureManager != null && this.textureManager.invalidate(chunkX, chunkZ)) {
+			this.pendingUpdate = true;
+		}
+	}
+
 	public void render(GuiGraphics graphics, VertexConsumerProvider vertexConsumers, float delta) {
+		if (this.pendingUpdate) {
+			this.pendingUpdate = false;
+			this.update(false);
+		}
+
 		graphics.fill(0, 0, this.width, this.height, 0x44000000);
 
 		int light = LightmapTextureManager.pack(15, 15);
@@ -251,208 +247,160 @@ public class WorldMapRenderer {
 	}
 
 	/**
-	 * Represents the chunk texture manager. Manages all the world map textures and re-position them if needed.
+	 * Represents the chunk texture manager. Manages the world map texture atlas.
+	 * <p>
+	 * The atlas holds a grid of 128x128 tiles, each tile shows {@code scale * scale} map chunks.
+	 * Tiles are addressed with wrap-around: a tile always lives in the slot at its tile coordinates modulo the grid size,
+	 * so panning only draws the newly exposed tiles, and the whole map is rendered as a single quad
+	 * sampling the atlas from a shifted origin.
 	 *
 	 * @version 1.0.0
 	 * @since 1.0.0
 	 */
-	class ChunkTextureManager {
-		private final ChunkTexture[][] textures;
-
-		public ChunkTextureManager(int texturesZ, int texturesX) {
-			this.textures = new ChunkTexture[texturesZ][texturesX];
-
-			for (int z = 0; z < this.textures.length; z++) {
-				ChunkTexture[] line = this.textures[z];
-				for (int x = 0; x < line.length; x++) {
-					int index = z * line.length + x;
-					ChunkTexture texture;
-					if (TEXTURES.size() <= index) {
-						texture = new ChunkTexture();
-					} else {
-						texture = TEXTURES.get(index);
-					}
-					line[x] = texture;
-				}
-			}
+	class ChunkTextureManager implements AutoCloseable {
+		private static final int TILE_SIZE = 128;
+		/**
+		 * The buffer the tiles are rendered into, tiles are only updated on the render thread.
+		 */
+		private static final int[] PIXELS = new int[TILE_SIZE * TILE_SIZE];
+
+		private final int slotsX;
+		private final int slotsZ;
+		private final NativeImageBackedTexture texture;
+		private final Identifier textureId;
+		private final RenderLayer mapRenderLayer;
+		/**
+		 * The tile coordinates held by each slot.
+		 */
+		private final int[] slotTileX;
+		private final int[] slotTileZ;
+		private final boolean[] slotValid;
+		private int scale = 0;
+
+		public ChunkTextureManager(int slotsX, int slotsZ) {
+			this.slotsX = slotsX;
+			this.slotsZ = slotsZ;
+			this.texture = new NativeImageBackedTexture(slotsX * TILE_SIZE, slotsZ * TILE_SIZE, true);
+			this.textureId = MinecraftClient.getInstance().getTextureManager().registerDynamicTexture("world_map", this.texture);
+			this.mapRenderLayer = RenderLayer.getText(this.textureId);
+			this.slotTileX = new int[slotsX * slotsZ];
+			this.slotTileZ = new int[slotsX * slotsZ];
+			this.slotValid = new boolean[slotsX * slotsZ];
 		}
 
-		public void shiftUp() {
-			ChunkTexture[] firstLine = this.textures[0];
-
-			System.arraycopy(this.textures, 1, this.textures, 0, this.textures.length - 1);
-
-			this.textures[this.textures.length - 1] = firstLine;
+		public boolean hasSize(int slotsX, int slotsZ) {
+			return this.slotsX == slotsX && this.slotsZ == slotsZ;
 		}
 
-		public void shiftDown() {
-			ChunkTexture[] lastLine = this.textures[this.textures.length - 1];
-
-			System.arraycopy(this.textures, 0, this.textures, 1, this.textures.length - 1);
-
-			this.textures[0] = lastLine;
+		private int atlasWidth() {
+			return this.slotsX * TILE_SIZE;
 		}
 
-		public void shiftLeft() {
-			for (var line : this.textures) {
-				ChunkTexture first = line[0];
-				System.arraycopy(line, 1, line, 0, line.length - 1);
-				line[line.length - 1] = first;
-			}
+		private int atlasHeight() {
+			return this.slotsZ * TILE_SIZE;
 		}
 
-		public void shiftRight() {
-			for (var line : this.textures) {
-				ChunkTexture last = line[line.length - 1];
-				System.arraycopy(line, 0, line, 1, line.length - 1);
-				line[0] = last;
-			}
+		public void invalidateAll() {
+			Arrays.fill(this.slotValid, false);
 		}
 
 		public void updateTextures(boolean forceRedraw) {
-			int chunkX = WorldMapRenderer.this.getCornerMapChunkX();
-			int chunkZ = WorldMapRenderer.this.getCornerMapChunkZ();
-
 			int scale = WorldMapRenderer.this.scale;
+			if (forceRedraw || this.scale != scale) {
+				this.scale = scale;
+				this.invalidateAll();
+			}
+
+			int startTileX = Math.floorDiv(WorldMapRenderer.this.getCornerMapChunkX(), scale);
+			int startTileZ = Math.floorDiv(WorldMapRenderer.this.getCornerMapChunkZ(), scale);
 			int count = 0;
 
 			long start = System.currentTimeMillis();
-			for (int z = 0; z < this.textures.length; z++) {
-				ChunkTexture[] line = this.textures[z];
-				for (int x = 0; x < line.length; x++) {
-					if (forceRedraw)
-						line[x].resetCache();
-					line[x].update(WorldMapRenderer.this.worldMap, chunkX + x * scale, chunkZ + z * scale, scale);
+			for (int tileZ = startTileZ; tileZ < startTileZ + this.slotsZ; tileZ++) {
+				for (int tileX = startTileX; tileX < startTileX + this.slotsX; tileX++) {
+					int slot = this.getSlot(tileX, tileZ);
+					if (this.slotValid[slot] && this.slotTileX[slot] == tileX && this.slotTileZ[slot] == tileZ)
+						continue;
+
+					this.drawTile(WorldMapRenderer.this.worldMap, tileX, tileZ, slot);
 					count++;
 				}
 			}
 
-			LOGGER.debug("Took {}ms to update {} textures.", (System.currentTimeMillis() - start), count);
+			if (count != 0)
+				LOGGER.debug("Took {}ms to update {} tiles.", (System.currentTimeMillis() - start), count);
 		}
 
-		public void render(GuiGraphics graphics, VertexConsumerProvider vertexConsumers, int light) {
-			int scale = WorldMapRenderer.this.scale;
-			float originX = -((WorldMapRenderer.this.cornerViewX & 127) / (float) scale);
-			float originZ = -((WorldMapRenderer.this.cornerViewZ & 127) / (float) scale);
-			int offsetZ = (int) -originZ;
-
-			for (int z = 0; z < this.textures.length; z++) {
-				ChunkTexture[] line = this.textures[z];
-
-				if (originZ + z * 128 > WorldMapRenderer.this.height)
-					break;
-
-				int offsetX = (int) -originX;
-				float height = 128;
-
-				if (originZ + z * 128 + height > WorldMapRenderer.this.height) {
-					height = WorldMapRenderer.this.height - (originZ + z * 128);
-				}
-
-				for (int x = 0; x < line.length; x++) {
-					if (originX + x * 128 > WorldMapRenderer.this.width)
-						break;
-
-					float width = 128;
+		private int getSlot(int tileX, int tileZ) {
+			return Math.floorMod(tileZ, this.slotsZ) * this.slotsX + Math.floorMod(tileX, this.slotsX);
+		}
 
-					if (originX + x * 128 + width > WorldMapRenderer.this.width) {
-						width = WorldMapRenderer.this.width - (originX + x * 128);
-					}
+		private void drawTile(WorldMap map, int tileX, int tileZ, int slot) {
+			int blockSize = TILE_SIZE * this.scale;
+			map.renderOverviewArea(tileX * blockSize, tileZ * blockSize, TILE_SIZE, TILE_SIZE, this.scale, PIXELS);
 
-					line[x].render(graphics, vertexConsumers, Math.round(originX + x * 128), Math.round(originZ + z * 128), offsetX, offsetZ, width, height, light);
-					offsetX = 0;
+			int slotX = (slot % this.slotsX) * TILE_SIZE;
+			int slotZ = (slot / this.slotsX) * TILE_SIZE;
+			var image = this.texture.getImage();
+			for (int z = 0; z < TILE_SIZE; z++) {
+				for (int x = 0; x < TILE_SIZE; x++) {
+					image.setPixelColor(slotX + x, slotZ + z, 0xff000000 | (PIXELS[z * TILE_SIZE + x] & 0x00ffffff));
 				}
-
-				offsetZ = 0;
 			}
-		}
-	}
-
-	/**
-	 * Represents a chunk texture.
-	 *
-	 * @version 1.0.0
-	 * @since 1.0.0
-	 */
-	static class ChunkTexture {
-		private final NativeImageBackedTexture texture = new NativeImageBackedTexture(128, 128, true);
-		private final RenderLayer mapRenderLayer;
-
-		private int cachedState = 0;
 
-		ChunkTexture() {
-			var id = MinecraftClient.getInstance().getTextureManager().registerDynamicTexture("world_map", this.texture);
-			this.mapRenderLayer = RenderLayer.getText(id);
+			this.texture.bindTexture();
+			// Not clamped, the atlas is sampled with wrap-around.
+			image.upload(0, slotX, slotZ, slotX, slotZ, TILE_SIZE, TILE_SIZE, false, false, false, false);
 
-			TEXTURES.add(this);
+			this.slotTileX[slot] = tileX;
+			this.slotTileZ[slot] = tileZ;
+			this.slotValid[slot] = true;
 		}
 
-		public void resetCache() {
-			this.cachedState = 0;
-		}
-
-		public void update(WorldMap map, int chunkStartX, int chunkStartZ, int scale) {
-			var paramState = Objects.hash(chunkStartX, chunkStartZ, scale);
-			if (this.cachedState == paramState)
-				return;
-
-			this.cachedState = paramState;
-
-			for (int textureZ = 0; textureZ < 128; textureZ++) {
-				int z = textureZ * scale;
-				int chunkZ = chunkStartZ + z / 128;
-				for (int textureX = 0; textureX < 128; textureX++) {
-					int x = textureX * scale;
-					int chunkX = chunkStartX + x / 128;
-
-					var opacity = 0xff000000;
-
-					// Checkerboard rendering if needed.
-                    /* var regionX = MapChunk.chunkToRegion(chunkX);
-                    var regionZ = MapChunk.chunkToRegion(chunkZ);
-                    if ((chunkX & 2) != (chunkZ & 2)) {
-                        opacity = 0xdd000000;
-                    }*/
-
-					int renderColor = map.getRenderColor((chunkX << 7) + (x & 127), (chunkZ << 7) + (z & 127),
-							ChunkGetterMode.CREATE);
-
-					renderColor = opacity | (renderColor & 0x00ffffff);
-
-					this.texture.getImage().setPixelColor(textureX, textureZ, renderColor);
-				}
+		/**
+		 * Invalidates the tile covering the given map chunk.
+		 *
+		 * @param chunkX the map chunk X-coordinate
+		 * @param chunkZ the map chunk Z-coordinate
+		 * @return {@code true} if the tile got invalidated, else {@code false}
+		 */
+		public boolean invalidate(int chunkX, int chunkZ) {
+			if (this.scale == 0)
+				return false;
+
+			int tileX = Math.floorDiv(chunkX, this.scale);
+			int tileZ = Math.floorDiv(chunkZ, this.scale);
+			int slot = this.getSlot(tileX, tileZ);
+			if (this.slotValid[slot] && this.slotTileX[slot] == tileX && this.slotTileZ[slot] == tileZ) {
+				this.slotValid[slot] = false;
+				return true;
 			}
 
-			this.texture.upload();
+			return false;
 		}
 
-		public void render(
-				GuiGraphics graphics, VertexConsumerProvider vertexConsumers,
-				float originX, float originY,
-				int offsetX, int offsetY,
-				float width, float height, int light
-		) {
+		public void render(GuiGraphics graphics, VertexConsumerProvider vertexConsumers, int light) {
+			int scale = WorldMapRenderer.this.scale;
+			float width = WorldMapRenderer.this.width;
+			float height = WorldMapRenderer.this.height;
+
+			// The position of the north-west corner of the view in the atlas, which wraps around.
+			float uStart = Math.floorMod(WorldMapRenderer.this.cornerViewX, this.atlasWidth() * scale) / (float) (this.atlasWidth() * scale);
+			float vStart = Math.floorMod(WorldMapRenderer.this.cornerViewZ, this.atlasHeight() * scale) / (float) (this.atlasHeight() * scale);
+			float uEnd = uStart + width / this.atlasWidth();
+			float vEnd = vStart + height / this.atlasHeight();
+
 			var model = graphics.getMatrices().peek().getModel();
 			var vertices = vertexConsumers.getBuffer(this.mapRenderLayer);
+			vertex(vertices, model, 0.f, height, uStart, vEnd, light);
+			vertex(vertices, model, width, height, uEnd, vEnd, light);
+			vertex(vertices, model, width, 0.f, uEnd, vStart, light);
+			vertex(vertices, model, 0.f, 0.f, uStart, vStart, light);
+		}
 
-			float uOffset = offsetX / 128.f;
-			float vOffset = offsetY / 128.f;
-			float uWidth = width / 128.f;
-			float vHeight = height / 128.f;
-
-			float startX = originX + offsetX;
-			float startY = originY + offsetY;
-			float endX = originX + width;
-			float endY = originY + height;
-
-			vertex(vertices, model, startX, endY,
-					uOffset, vHeight, light);
-			vertex(vertices, model, endX, originY + height,
-					uWidth, vHeight, light);
-			vertex(vertices, model, endX, originY + offsetY,
-					uWidth, vOffset, light);
-			vertex(vertices, model, startX, startY,
-					uOffset, vOffset, light);
+		@Override
+		public void close() {
+			MinecraftClient.getInstance().getTextureManager().destroyTexture(this.textureId);
 		}
 	}
 }
@@ -39,6 +39,12 @@ public class WorldMapScreen extends SpruceScreen {
 		super.removed();
 	}
 
+	@Override
+	public void tick() {
+		super.tick();
+		this.mod.getMap().getPrefetcher().tickView();
+	}
+
 	@Override
 	protected void init() {
 		super.init();
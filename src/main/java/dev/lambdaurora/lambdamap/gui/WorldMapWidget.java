@@ -46,7 +46,7 @@ public class WorldMapWidget extends AbstractSpruceWidget {
 	}
 
 	private void rescale(int amount) {
-		this.intScale = MathHelper.clamp(this.intScale + amount, -4, 3);
+		this.intScale = MathHelper.clamp(this.intScale + amount, -4, 4);
 
 		this.applyScale();
 	}
@@ -110,6 +110,9 @@ public class WorldMapWidget extends AbstractSpruceWidget {
 				scaleCompensation = this.renderer.scale();
 			}
 			this.renderer.updateView(viewX - deltaX * scaleCompensation, viewZ - deltaY * scaleCompensation);
+			// The view moves in the opposite direction of the drag.
+			this.mod.getMap().getPrefetcher().prefetchView(this.renderer.cornerX(), this.renderer.cornerZ(),
+					this.renderer.scaledWidth(), this.renderer.scaledHeight(), this.renderer.scale(), -deltaX, -deltaY);
 			return true;
 		}
 		return super.onMouseDrag(mouseX, mouseY, button, deltaX, deltaY);
@@ -48,7 +48,22 @@ public class MapHud implements AutoCloseable {
 	private final MinecraftClient client;
 	private final NativeImageBackedTexture texture = new NativeImageBackedTexture(128 + 64, 128 + 64, true);
 	private final RenderLayer mapRenderLayer;
+	private final int[] pixels = new int[TEXTURE_SIZE * TEXTURE_SIZE];
+	/**
+	 * {@code true} if the whole texture has to be redrawn.
+	 */
 	private boolean dirty = true;
+	/**
+	 * {@code true} if the player moved past the movement threshold since the last update.
+	 */
+	private boolean moved = false;
+	/**
+	 * The rectangle of changed pixels since the last update in absolute coordinates, empty if the minimum is greater than the maximum.
+	 */
+	private int dirtyMinX = Integer.MAX_VALUE;
+	private int dirtyMinZ = Integer.MAX_VALUE;
+	private int dirtyMaxX = Integer.MIN_VALUE;
+	private int dirtyMaxZ = Integer.MIN_VALUE;
 	private int renderPosX;
 	private int renderPosZ;
 
@@ -60,10 +75,47 @@ public class MapHud implements AutoCloseable {
 		this.mapRenderLayer = RenderLayer.getText(id);
 	}
 
+	/**
+	 * Marks the whole texture as dirty.
+	 */
 	public void markDirty() {
 		this.dirty = true;
 	}
 
+	/**
+	 * Marks the given area as dirty, only the part of it visible in the texture is redrawn.
+	 * <p>
+	 * Coordinates are absolute.
+	 *
+	 * @param minX the minimum X-coordinate, inclusive
+	 * @param minZ the minimum Z-coordinate, inclusive
+	 * @param maxX the maximum X-coordinate, inclusive
+	 * @param maxZ the maximum Z-coordinate, inclusive
+	 */
+	public void markDirty(int minX, int minZ, int maxX, int maxZ) {
+		// The parts out of the texture are drawn when they get scrolled into it.
+		int cornerX = this.renderPosX - TEXTURE_SIZE / 2;
+		int cornerZ = this.renderPosZ - TEXTURE_SIZE / 2;
+		minX = Math.max(minX, cornerX);
+		minZ = Math.max(minZ, cornerZ);
+		maxX = Math.min(maxX, cornerX + TEXTURE_SIZE - 1);
+		maxZ = Math.min(maxZ, cornerZ + TEXTURE_SIZE - 1);
+		if (minX > maxX || minZ > maxZ)
+			return;
+
+		this.dirtyMinX = Math.min(this.dirtyMinX, minX);
+		this.dirtyMinZ = Math.min(this.dirtyMinZ, minZ);
+		this.dirtyMaxX = Math.max(this.dirtyMaxX, maxX);
+		this.dirtyMaxZ = Math.max(this.dirtyMaxZ, maxZ);
+	}
+
+	/**
+	 * Marks the player as moved past the movement threshold, the texture is then scrolled to the new position of the player.
+	 */
+	public void markMoved() {
+		this.moved = true;
+	}
+
 	public boolean isVisible() {
 		return this.config.isHudVisible();
 	}
@@ -85,28 +137,105 @@ public class MapHud implements AutoCloseable {
 		return this.config.isNorthLocked() ? THRESHOLD_NORTH_LOCKED : THRESHOLD_ROTATED;
 	}
 
+	/**
+	 * Updates the texture of the map.
+	 * <p>
+	 * The texture is a toroidal buffer: a block is always drawn at its absolute coordinates modulo the texture size,
+	 * so moving only draws the newly exposed strips, and the texture is rendered from a shifted origin.
+	 * Only the drawn areas are uploaded.
+	 *
+	 * @param map the world map
+	 */
 	public void updateTexture(WorldMap map) {
 		if (!this.isVisible() || this.client.currentScreen != null && this.client.currentScreen.isPauseScreen())
 			return;
-		if (!this.dirty) return;
-		else this.dirty = false;
+		boolean hasDirtyArea = this.dirtyMinX <= this.dirtyMaxX;
+		if (!this.dirty && !this.moved && !hasDirtyArea)
+			return;
+
+		int posX = this.renderPosX;
+		int posZ = this.renderPosZ;
+		if (this.dirty || this.moved) {
+			posX = this.client.player.getBlockPos().getX();
+			posZ = this.client.player.getBlockPos().getZ();
+		}
+
+		int cornerX = posX - TEXTURE_SIZE / 2;
+		int cornerZ = posZ - TEXTURE_SIZE / 2;
+		int oldCornerX = this.renderPosX - TEXTURE_SIZE / 2;
+		int oldCornerZ = this.renderPosZ - TEXTURE_SIZE / 2;
+		int deltaX = cornerX - oldCornerX;
+		int deltaZ = cornerZ - oldCornerZ;
+
+		if (this.dirty || Math.abs(deltaX) >= TEXTURE_SIZE || Math.abs(deltaZ) >= TEXTURE_SIZE) {
+			this.updateArea(map, cornerX, cornerZ, TEXTURE_SIZE, TEXTURE_SIZE);
+		} else {
+			// Newly exposed strips.
+			if (deltaX > 0) {
+				this.updateArea(map, oldCornerX + TEXTURE_SIZE, cornerZ, deltaX, TEXTURE_SIZE);
+			} else if (deltaX < 0) {
+				this.updateArea(map, cornerX, cornerZ, -deltaX, TEXTURE_SIZE);
+			}
+
+			if (deltaZ > 0) {
+				this.updateArea(map, cornerX, oldCornerZ + TEXTURE_SIZE, TEXTURE_SIZE, deltaZ);
+			} else if (deltaZ < 0) {
+				this.updateArea(map, cornerX, cornerZ, TEXTURE_SIZE, -deltaZ);
+			}
+
+			// Changed pixels still in the texture.
+			if (hasDirtyArea) {
+				int minX = Math.max(this.dirtyMinX, cornerX);
+				int minZ = Math.max(this.dirtyMinZ, cornerZ);
+				int maxX = Math.min(this.dirtyMaxX, cornerX + TEXTURE_SIZE - 1);
+				int maxZ = Math.min(this.dirtyMaxZ, cornerZ + TEXTURE_SIZE - 1);
+				this.updateArea(map, minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
+			}
+		}
 
-		int width = this.texture.getImage().getWidth();
-		int height = this.texture.getImage().getHeight();
-		var corner = this.client.player.getBlockPos().add(-(width / 2), 0, -(height / 2));
+		this.dirty = false;
+		this.moved = false;
+		this.dirtyMinX = this.dirtyMinZ = Integer.MAX_VALUE;
+		this.dirtyMaxX = this.dirtyMaxZ = Integer.MIN_VALUE;
+		this.renderPosX = posX;
+		this.renderPosZ = posZ;
+	}
+
+	/**
+	 * Draws the given area into the texture at its wrapped-around position, and uploads it.
+	 */
+	private void updateArea(WorldMap map, int x, int z, int width, int height) {
+		if (width <= 0 || height <= 0)
+			return;
 
-		for (int z = 0; z < width; ++z) {
-			int absoluteZ = corner.getZ() + z;
+		map.renderArea(x, z, width, height, 1, ChunkGetterMode.LOAD_ASYNC, this.pixels);
 
-			for (int x = 0; x < height; ++x) {
-				int absoluteX = corner.getX() + x;
-				this.texture.getImage().setPixelColor(x, z, map.getRenderColor(absoluteX, absoluteZ, ChunkGetterMode.LOAD));
+		var image = this.texture.getImage();
+		for (int row = 0; row < height; row++) {
+			int textureZ = Math.floorMod(z + row, TEXTURE_SIZE);
+			for (int column = 0; column < width; column++) {
+				image.setPixelColor(Math.floorMod(x + column, TEXTURE_SIZE), textureZ, this.pixels[row * width + column]);
 			}
 		}
 
-		this.texture.upload();
-		this.renderPosX = this.client.player.getBlockPos().getX();
-		this.renderPosZ = this.client.player.getBlockPos().getZ();
+		// The area may wrap around the edges of the texture, in which case it's uploaded in up to 4 parts.
+		int textureX = Math.floorMod(x, TEXTURE_SIZE);
+		int textureZ = Math.floorMod(z, TEXTURE_SIZE);
+		int firstWidth = Math.min(width, TEXTURE_SIZE - textureX);
+		int firstHeight = Math.min(height, TEXTURE_SIZE - textureZ);
+
+		this.texture.bindTexture();
+		this.uploadArea(textureX, textureZ, firstWidth, firstHeight);
+		this.uploadArea(0, textureZ, width - firstWidth, firstHeight);
+		this.uploadArea(textureX, 0, firstWidth, height - firstHeight);
+		this.uploadArea(0, 0, width - firstWidth, height - firstHeight);
+	}
+
+	private void uploadArea(int x, int z, int width, int height) {
+		if (width > 0 && height > 0) {
+			// Not clamped, the texture is sampled with wrap-around.
+			this.texture.getImage().upload(0, x, z, x, z, width, height, false, false, false, false);
+		}
 	}
 
 	public void render(GuiGraphics graphics, int light, float delta) {
@@ -151,10 +280,11 @@ public class MapHud implements AutoCloseable {
 
 		graphics.getMatrices().push();
 
-		float uStart = 0.f;
-		float uEnd = 1.f;
-		float vStart = 0.f;
-		float vEnd = 1.f;
+		// The texture is toroidal, the origin is where the north-west corner has been drawn.
+		float uStart = Math.floorMod(this.renderPosX - textureWidth / 2, textureWidth) / (float) textureWidth;
+		float uEnd = uStart + 1.f;
+		float vStart = Math.floorMod(this.renderPosZ - textureHeight / 2, textureHeight) / (float) textureHeight;
+		float vEnd = vStart + 1.f;
 		if (!this.config.isNorthLocked()) {
 			graphics.getMatrices().translate(64, 64, 0);
 			graphics.getMatrices().multiply(Axis.Z_POSITIVE.rotationDegrees(-this.client.player.getYaw(delta) + 180));
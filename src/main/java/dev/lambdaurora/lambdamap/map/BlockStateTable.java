@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+import dev.lambdaurora.lambdamap.LambdaMap;
+import dev.lambdaurora.lambdamap.mixin.BlockColorsAccessor;
+import dev.lambdaurora.lambdamap.mixin.MapColorAccessor;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.MapColor;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.color.block.BlockColorProvider;
+import net.minecraft.registry.Registries;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.world.EmptyBlockView;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.qsl.resource.loader.api.reloader.SimpleSynchronousResourceReloader;
+
+/**
+ * Represents a dense table of the map-related properties of every block state, indexed by block state raw ID.
+ * <p>
+ * The table is rebuilt on each resource reload, and lookups of block states missing from the table
+ * fall back to computing their properties directly.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class BlockStateTable implements SimpleSynchronousResourceReloader {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final Identifier ID = LambdaMap.id("block_state_table");
+
+	private static final int MAP_COLOR_MASK = 0x3f;
+	private static final int HAS_TINT = 1 << 8;
+	private static final int FLUID = 1 << 9;
+	private static final int FLUID_VISIBLE = 1 << 10;
+
+	/**
+	 * The entries of the table, each packing the map color ID and the property bits.
+	 */
+	private volatile int[] entries = new int[0];
+	private volatile BlockColorProvider[] providers = new BlockColorProvider[0];
+
+	@Override
+	public Identifier getQuiltId() {
+		return ID;
+	}
+
+	@Override
+	public void reload(ResourceManager manager) {
+		this.rebuild();
+
+		// The tints may have changed.
+		var map = LambdaMap.get().getMap();
+		if (map != null)
+			map.invalidateRenderTiles();
+	}
+
+	/**
+	 * Rebuilds the table from the current block states and block color providers.
+	 */
+	public void rebuild() {
+		int size = Block.STATE_IDS.size();
+		var entries = new int[size];
+		var providers = new BlockColorProvider[size];
+		var blockColors = (BlockColorsAccessor) MinecraftClient.getInstance().getBlockColors();
+
+		for (int i = 0; i < size; i++) {
+			var state = Block.STATE_IDS.get(i);
+			if (state != null) {
+				providers[i] = blockColors.getProviders().get(Registries.BLOCK.getRawId(state.getBlock()));
+				entries[i] = computeEntry(state, providers[i]);
+			}
+		}
+
+		this.providers = providers;
+		this.entries = entries;
+		LOGGER.debug("Built the block state table with {} entries.", size);
+	}
+
+	/**
+	 * Returns the map color of the given block state, which doesn't depend on the position of the block.
+	 *
+	 * @param state the block state
+	 * @return the map color
+	 */
+	public MapColor getMapColor(BlockState state) {
+		return MapColorAccessor.getColors()[this.getEntry(state) & MAP_COLOR_MASK];
+	}
+
+	/**
+	 * Returns whether the given block state has a tint provider, which means the block state is worth storing in map chunks.
+	 *
+	 * @param state the block state
+	 * @return {@code true} if the block state has a tint provider, else {@code false}
+	 */
+	public boolean hasTint(BlockState state) {
+		return (this.getEntry(state) & HAS_TINT) != 0;
+	}
+
+	/**
+	 * Returns the tint provider of the given block state.
+	 *
+	 * @param state the block state
+	 * @return the tint provider if present, else {@code null}
+	 */
+	public @Nullable BlockColorProvider getTintProvider(BlockState state) {
+		int rawId = Block.getRawIdFromState(state);
+		var providers = this.providers;
+		if (rawId >= 0 && rawId < providers.length)
+			return providers[rawId];
+		return ((BlockColorsAccessor) MinecraftClient.getInstance().getBlockColors()).getProviders()
+				.get(Registries.BLOCK.getRawId(state.getBlock()));
+	}
+
+	/**
+	 * Returns whether the given block state holds a fluid.
+	 *
+	 * @param state the block state
+	 * @return {@code true} if the block state holds a fluid, else {@code false}
+	 */
+	public boolean isFluid(BlockState state) {
+		return (this.getEntry(state) & FLUID) != 0;
+	}
+
+	/**
+	 * Returns whether the fluid held by the given block state is visible from above,
+	 * which is the case if the top of the block isn't a solid full square.
+	 *
+	 * @param state the block state
+	 * @return {@code true} if the block state holds a fluid visible from above, else {@code false}
+	 */
+	public boolean isFluidVisible(BlockState state) {
+		return (this.getEntry(state) & FLUID_VISIBLE) != 0;
+	}
+
+	private int getEntry(BlockState state) {
+		int rawId = Block.getRawIdFromState(state);
+		var entries = this.entries;
+		if (rawId >= 0 && rawId < entries.length)
+			return entries[rawId];
+		return computeEntry(state, this.getTintProvider(state));
+	}
+
+	private static int computeEntry(BlockState state, @Nullable BlockColorProvider provider) {
+		int entry = state.getMapColor(EmptyBlockView.INSTANCE, BlockPos.ORIGIN).id & MAP_COLOR_MASK;
+
+		if (provider != null)
+			entry |= HAS_TINT;
+
+		if (!state.getFluidState().isEmpty()) {
+			entry |= FLUID;
+			if (!state.isSideSolidFullSquare(EmptyBlockView.INSTANCE, BlockPos.ORIGIN, Direction.UP))
+				entry |= FLUID_VISIBLE;
+		}
+
+		return entry;
+	}
+}
@@ -35,6 +35,10 @@ public enum ChunkGetterMode {
 	 * Gets the chunk from memory, or if absent loads the chunk from disk.
 	 */
 	LOAD(WorldMap::getChunkOrLoad),
+	/**
+	 * Gets the chunk from memory, or if absent schedules the loading of the chunk from disk without waiting for it.
+	 */
+	LOAD_ASYNC(WorldMap::getChunkOrLoadAsync),
 	/**
 	 * Gets or loads the chunk, if absent creates a new empty chunk.
 	 */
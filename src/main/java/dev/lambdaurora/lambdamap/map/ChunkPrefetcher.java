@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+import net.minecraft.entity.Entity;
+
+/**
+ * Represents the map chunk prefetcher.
+ * <p>
+ * Predicts which map chunks are about to be displayed, from the movement of the player or the panning of the world map,
+ * and loads them asynchronously before they are needed.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ChunkPrefetcher {
+	/**
+	 * The amount of ticks to look ahead along the movement of the player.
+	 */
+	private static final int LOOKAHEAD_TICKS = 40;
+	/**
+	 * The radius in blocks around the predicted position to prefetch, covers the HUD texture and a margin.
+	 */
+	private static final int PREFETCH_RADIUS = 96 + 64;
+	/**
+	 * The squared speed in blocks per tick under which the player is considered still.
+	 */
+	private static final double MIN_SPEED_SQUARED = 0.2 * 0.2;
+	/**
+	 * The largest amount of map chunks in the area prefetched ahead of the player.
+	 */
+	public static final int MAX_PREFETCHED_CHUNKS = (PREFETCH_RADIUS * 2 / 128 + 2) * (PREFETCH_RADIUS * 2 / 128 + 2);
+
+	private final WorldMap map;
+
+	private int startX;
+	private int startZ;
+	private int endX = -1;
+	private int endZ = -1;
+
+	/**
+	 * The world map view to prefetch around on the next tick, requested while panning.
+	 */
+	private boolean viewRequested = false;
+	private int viewCornerX;
+	private int viewCornerZ;
+	private int viewWidth;
+	private int viewHeight;
+	private double viewDirectionX;
+	private double viewDirectionZ;
+
+	public ChunkPrefetcher(WorldMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Prefetches the map chunks ahead of the given entity.
+	 *
+	 * @param entity the entity, usually the player
+	 */
+	public void tick(Entity entity) {
+		var velocity = entity.getRootVehicle().getVelocity();
+		double speedSquared = velocity.x * velocity.x + velocity.z * velocity.z;
+
+		if (speedSquared < MIN_SPEED_SQUARED) {
+			this.endX = this.startX - 1;
+			this.endZ = this.startZ - 1;
+			return;
+		}
+
+		int predictedX = (int) (entity.getX() + velocity.x * LOOKAHEAD_TICKS);
+		int predictedZ = (int) (entity.getZ() + velocity.z * LOOKAHEAD_TICKS);
+
+		int startX = MapChunk.blockToChunk(predictedX - PREFETCH_RADIUS);
+		int startZ = MapChunk.blockToChunk(predictedZ - PREFETCH_RADIUS);
+		int endX = MapChunk.blockToChunk(predictedX + PREFETCH_RADIUS);
+		int endZ = MapChunk.blockToChunk(predictedZ + PREFETCH_RADIUS);
+
+		if (startX != this.startX || startZ != this.startZ || endX != this.endX || endZ != this.endZ) {
+			this.startX = startX;
+			this.startZ = startZ;
+			this.endX = endX;
+			this.endZ = endZ;
+			this.prefetch(startX, startZ, endX, endZ);
+		}
+	}
+
+	/**
+	 * Requests the prefetch of the map chunks next to the world map view, on the side it is being panned towards.
+	 * <p>
+	 * The requests are merged and the prefetch happens once on the next {@linkplain #tickView() view tick}.
+	 * Nothing is prefetched if the view is drawn from the region overviews at the given scale,
+	 * as the chunks out of the view would then be loaded for nothing.
+	 *
+	 * @param cornerX the X-coordinate of the north-west corner of the view
+	 * @param cornerZ the Z-coordinate of the north-west corner of the view
+	 * @param width the width of the view in blocks
+	 * @param height the height of the view in blocks
+	 * @param scale the amount of blocks per pixel of the view
+	 * @param directionX the X component of the panning direction
+	 * @param directionZ the Z component of the panning direction
+	 */
+	public void prefetchView(int cornerX, int cornerZ, int width, int height, int scale, double directionX, double directionZ) {
+		if (WorldMap.getOverviewLevel(scale) != 0)
+			return;
+
+		if (!this.viewRequested) {
+			this.viewRequested = true;
+			this.viewDirectionX = 0;
+			this.viewDirectionZ = 0;
+		}
+
+		this.viewCornerX = cornerX;
+		this.viewCornerZ = cornerZ;
+		this.viewWidth = width;
+		this.viewHeight = height;
+		this.viewDirectionX += directionX;
+		this.viewDirectionZ += directionZ;
+	}
+
+	/**
+	 * Prefetches the map chunks next to the world map view if requested since the last tick.
+	 * <p>
+	 * Ticked by the world map screen, as the world doesn't tick while the game is paused.
+	 */
+	public void tickView() {
+		if (!this.viewRequested)
+			return;
+
+		this.viewRequested = false;
+		int startX = MapChunk.blockToChunk(this.viewCornerX);
+		int startZ = MapChunk.blockToChunk(this.viewCornerZ);
+		int endX = MapChunk.blockToChunk(this.viewCornerX + this.viewWidth);
+		int endZ = MapChunk.blockToChunk(this.viewCornerZ + this.viewHeight);
+
+		if (this.viewDirectionX > 0) {
+			this.prefetch(endX + 1, startZ, endX + 1, endZ);
+		} else if (this.viewDirectionX < 0) {
+			this.prefetch(startX - 1, startZ, startX - 1, endZ);
+		}
+
+		if (this.viewDirectionZ > 0) {
+			this.prefetch(startX, endZ + 1, endX, endZ + 1);
+		} else if (this.viewDirectionZ < 0) {
+			this.prefetch(startX, startZ - 1, endX, startZ - 1);
+		}
+	}
+
+	public int getStartX() {
+		return this.startX;
+	}
+
+	public int getStartZ() {
+		return this.startZ;
+	}
+
+	public int getEndX() {
+		return this.endX;
+	}
+
+	public int getEndZ() {
+		return this.endZ;
+	}
+
+	/**
+	 * Returns whether the given map chunk is in the area last prefetched ahead of the player.
+	 *
+	 * @param chunk the map chunk
+	 * @return {@code true} if the map chunk has been prefetched, else {@code false}
+	 */
+	public boolean isPrefetched(MapChunk chunk) {
+		return chunk.getX() >= this.startX && chunk.getX() <= this.endX
+				&& chunk.getZ() >= this.startZ && chunk.getZ() <= this.endZ;
+	}
+
+	private void prefetch(int startX, int startZ, int endX, int endZ) {
+		for (int z = startZ; z <= endZ; z++) {
+			for (int x = startX; x <= endX; x++) {
+				this.map.getChunkOrLoadAsync(x, z);
+			}
+		}
+	}
+}
@@ -17,66 +17,80 @@
 
 package dev.lambdaurora.lambdamap.map;
 
+import dev.lambdaurora.lambdamap.LambdaMap;
 import dev.lambdaurora.lambdamap.map.storage.MapRegionFile;
-import dev.lambdaurora.lambdamap.mixin.BlockColorsAccessor;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.fabricmc.fabric.api.util.NbtType;
 import net.minecraft.block.BlockState;
-import net.minecraft.client.MinecraftClient;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtHelper;
 import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtString;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.Registry;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.SimpleBitStorage;
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.biome.Biome;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a map chunk. A map chunk is 128x128 blocks represented by color IDs and shade value for height differences.
+ * <p>
+ * Biomes and block states are stored in {@link PalettedStorage palette-indexed storages} to keep the memory footprint
+ * of resident chunks low, while the color IDs live off-heap in a page of the world map {@link MapChunkArena}.
  *
  * @author LambdAurora
  * @version 1.0.0
  * @since 1.0.0
  */
 public class MapChunk implements AutoCloseable {
-	private static final int SIZE = 16384;
+	private static final Logger LOGGER = LogManager.getLogger();
+	/**
+	 * The version of the map chunk NBT format.
+	 * <ul>
+	 *     <li>{@code 0}: biomes stored as a single {@code biome} identifier or a {@code biomes} list of per-biome bit masks</li>
+	 *     <li>{@code 1}: biomes stored as a {@code biome_palette} and packed {@code biome_indices}</li>
+	 * </ul>
+	 */
+	public static final int FORMAT_VERSION = 1;
+	static final int SIZE = 16384;
 
 	private final WorldMap worldMap;
 	private final int x;
 	private final int z;
-	private byte[] colors = new byte[SIZE];
-	private final Biome[] biomes = new Biome[SIZE];
-	private final BlockState[] blockStates = new BlockState[SIZE];
+	private final MapChunkPool.Buffers buffers;
+	private final ByteBuffer colors;
+	private final PalettedStorage<Biome> biomes;
+	private final PalettedStorage<BlockState> blockStates;
 	private final MapRegionFile regionFile;
-	private final ScheduledFuture<?> saveTask;
-	private boolean locked = false;
 	private boolean empty = true;
 	private boolean dirty = false;
+	private boolean released = false;
+	/**
+	 * The reference bit used by the eviction, set when the chunk is accessed from the world map.
+	 */
+	private boolean referenced = true;
+	/**
+	 * The cached render colors of this chunk, allocated on the first render.
+	 */
+	private @Nullable RenderTile renderTile;
 
 	public MapChunk(WorldMap worldMap, MapRegionFile regionFile, int x, int z) {
 		this.worldMap = worldMap;
 		this.x = x;
 		this.z = z;
 		this.regionFile = regionFile;
+		this.buffers = worldMap.pool.acquire();
+		this.colors = this.buffers.colors;
+		this.biomes = this.buffers.biomes;
+		this.blockStates = this.buffers.blockStates;
 
 		if (this.regionFile != null) {
 			this.regionFile.incrementLoadedChunk();
-			// Auto-save every 6 minutes
-			this.saveTask = this.worldMap.service.scheduleAtFixedRate(this::save, 6, 6, TimeUnit.MINUTES);
-		} else {
-			this.saveTask = null;
 		}
 	}
 
@@ -144,20 +158,31 @@ public class MapChunk implements AutoCloseable {
 		return startBoxX <= centerX && centerX < endBoxX && startBoxZ <= centerZ && centerZ < endBoxZ;
 	}
 
-	public void lock() {
-		this.locked = true;
+	public boolean isEmpty() {
+		return this.empty;
 	}
 
-	public void unlock() {
-		this.locked = false;
+	void markReferenced() {
+		this.referenced = true;
 	}
 
-	public boolean isEmpty() {
-		return this.empty;
+	/**
+	 * Clears the reference bit of this chunk.
+	 *
+	 * @return {@code true} if the chunk has been referenced since the last call, else {@code false}
+	 */
+	boolean clearReferenced() {
+		boolean referenced = this.referenced;
+		this.referenced = false;
+		return referenced;
 	}
 
 	public void markDirty() {
-		this.dirty = true;
+		if (!this.dirty) {
+			this.dirty = true;
+			if (this.regionFile != null)
+				this.worldMap.dirtyChunks.add(this);
+		}
 	}
 
 	protected int getIndex(int x, int z) {
@@ -171,7 +196,7 @@ public class MapChunk implements AutoCloseable {
 	 * @return the color data
 	 */
 	protected byte getColor(int index) {
-		return this.colors[index];
+		return this.colors.get(index);
 	}
 
 	/**
@@ -188,13 +213,14 @@ public class MapChunk implements AutoCloseable {
 	}
 
 	public boolean putColor(int x, int z, byte color) {
-		if (this.locked)
+		if (this.released)
 			return false;
 		if (color != 0 && this.empty)
 			this.empty = false;
 		int index = this.getIndex(x, z);
-		if (this.colors[index] != color) {
-			this.colors[index] = color;
+		if (this.colors.get(index) != color) {
+			this.colors.put(index, color);
+			this.invalidateRenderTile(x, z);
 			this.markDirty();
 			return this.dirty;
 		}
@@ -202,7 +228,7 @@ public class MapChunk implements AutoCloseable {
 	}
 
 	protected @Nullable Biome getBiome(int index) {
-		return this.biomes[index];
+		return this.biomes.get(index);
 	}
 
 	/**
@@ -219,11 +245,12 @@ public class MapChunk implements AutoCloseable {
 	}
 
 	public boolean putBiome(int x, int z, @Nullable Biome biome) {
-		if (this.locked)
+		if (this.released)
 			return false;
-		int index = this.getIndex(x, z);
-		if (this.biomes[index] != biome) {
-			this.biomes[index] = biome;
+		if (this.biomes.set(this.getIndex(x, z), biome)) {
+			// The biome is blended with the ones around it, which may be in other chunks.
+			this.worldMap.invalidateRenderTiles(x - WorldMap.WATER_BLEND_RADIUS, z - WorldMap.WATER_BLEND_RADIUS,
+					x + WorldMap.WATER_BLEND_RADIUS, z + WorldMap.WATER_BLEND_RADIUS);
 			this.markDirty();
 			return this.dirty;
 		}
@@ -231,7 +258,7 @@ public class MapChunk implements AutoCloseable {
 	}
 
 	protected @Nullable BlockState getBlockState(int index) {
-		return this.blockStates[index];
+		return this.blockStates.get(index);
 	}
 
 	/**
@@ -248,141 +275,156 @@ public class MapChunk implements AutoCloseable {
 	}
 
 	public boolean putBlockState(int x, int z, @Nullable BlockState state) {
-		if (this.locked)
+		if (this.released)
 			return false;
 
 		if (state != null && !filterBlockState(state)) {
 			state = null; // Do not save unnecessary block states.
 		}
 
-		int index = this.getIndex(x, z);
-		if (this.blockStates[index] != state) {
-			this.blockStates[index] = state;
+		if (this.blockStates.set(this.getIndex(x, z), state)) {
+			this.invalidateRenderTile(x, z);
 			this.markDirty();
 			return this.dirty;
 		}
 		return false;
 	}
 
+	/**
+	 * Puts a pixel, the biome and block state are only replaced if present.
+	 *
+	 * @param x the X coordinate
+	 * @param z the Z coordinate
+	 * @param color the color data
+	 * @param biome the biome if known, else {@code null}
+	 * @param state the block state if known, else {@code null}
+	 * @return {@code true} if the pixel has changed, else {@code false}
+	 */
 	public boolean putPixelAndPreserve(int x, int z, byte color, @Nullable Biome biome, @Nullable BlockState state) {
-		this.putColor(x, z, color);
+		boolean changed = this.putColor(x, z, color);
 		if (biome != null)
-			this.putBiome(x, z, biome);
+			changed |= this.putBiome(x, z, biome);
 		if (state != null)
-			this.putBlockState(x, z, state);
-		return this.dirty;
+			changed |= this.putBlockState(x, z, state);
+		return changed;
+	}
+
+	boolean hasRenderTile() {
+		return this.renderTile != null;
 	}
 
 	/**
-	 * Returns the map chunk as NBT.
+	 * Returns the render tile of this chunk, invalidated if it has been rendered for another render generation.
 	 *
-	 * @return the map chunk as NBT
+	 * @param generation the current render generation of the world map
+	 * @return the render tile
 	 */
-	public NbtCompound toNbt() {
-		var nbt = new NbtCompound();
-		nbt.putInt("x", this.x);
-		nbt.putInt("z", this.z);
-		nbt.putByteArray("colors", this.colors);
-
-		this.writeBiomesNbt(nbt);
-		this.writeBlockPaletteNbt(nbt);
+	RenderTile getRenderTile(int generation) {
+		if (this.renderTile == null) {
+			this.renderTile = new RenderTile(generation);
+		} else {
+			this.renderTile.checkGeneration(generation);
+		}
+		return this.renderTile;
+	}
 
-		return nbt;
+	private void invalidateRenderTile(int x, int z) {
+		if (this.renderTile != null) {
+			this.renderTile.invalidate(x & 127, z & 127, x & 127, z & 127);
+		}
 	}
 
 	/**
-	 * Writes the biomes to the NBT.
+	 * Invalidates the given rectangle of the render tile of this chunk.
 	 *
-	 * @param nbt the parent compound NBT
+	 * @param minX the minimum local X-coordinate, inclusive
+	 * @param minZ the minimum local Z-coordinate, inclusive
+	 * @param maxX the maximum local X-coordinate, inclusive
+	 * @param maxZ the maximum local Z-coordinate, inclusive
 	 */
-	private void writeBiomesNbt(NbtCompound nbt) {
-		var registry = this.worldMap.getBiomeRegistry();
-		if (registry != null) {
-			var biomes = new Object2ObjectOpenHashMap<Biome, IntList>();
-			for (int i = 0; i < this.biomes.length; i++) {
-				var biome = this.biomes[i];
-				biomes.computeIfAbsent(biome, o -> new IntArrayList()).add(i);
-			}
-
-			var biomeList = new NbtList();
-			biomes.forEach((biome, indices) -> {
-				if (biome == null)
-					return;
-				var id = registry.getId(biome);
-				if (indices.size() == SIZE) {
-					if (id != null)
-						nbt.putString("biome", id.toString());
-				} else if (id != null) {
-					var bitSet = new BitSet(SIZE);
-
-					for (int i : indices) {
-						bitSet.set(i);
-					}
-
-					var biomeNbt = new NbtCompound();
-					biomeNbt.putString("biome", id.toString());
-					biomeNbt.putByteArray("mask", bitSet.toByteArray());
-					biomeList.add(biomeNbt);
-				}
-			});
-			if (!biomeList.isEmpty())
-				nbt.put("biomes", biomeList);
+	void invalidateRenderTile(int minX, int minZ, int maxX, int maxZ) {
+		if (this.renderTile != null) {
+			this.renderTile.invalidate(minX, minZ, maxX, maxZ);
 		}
 	}
 
 	/**
-	 * Writes the block palette as NBT.
+	 * Returns the map chunk as NBT.
 	 *
-	 * @param nbt the parent compound NBT
+	 * @return the map chunk as NBT
 	 */
-	private void writeBlockPaletteNbt(NbtCompound nbt) {
-		var palette = new ArrayList<BlockState>();
-		for (var state : this.blockStates) {
-			if (state != null) {
-				if (!palette.contains(state))
-					palette.add(state);
-			}
-		}
+	public NbtCompound toNbt() {
+		return this.snapshot().toNbt();
+	}
+
+	/**
+	 * Takes an immutable snapshot of this chunk, which can be serialized from any thread.
+	 * <p>
+	 * The biomes and block states are frozen and shared with the snapshot until their next modification,
+	 * the colors are copied since they live in an arena page which goes back to the pool on unload.
+	 *
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		return this.snapshot(null);
+	}
 
-		var paletteNbt = new NbtList();
-		palette.forEach(state -> paletteNbt.add(NbtHelper.fromBlockState(state)));
-		nbt.put("palette", paletteNbt);
+	private Snapshot snapshot(int @Nullable [] overview) {
+		byte[] colors = new byte[SIZE];
+		this.colors.get(0, colors);
+		return new Snapshot(this.x, this.z, colors, this.worldMap.getBiomeRegistry(),
+				this.biomes.freeze(), this.blockStates.freeze(), overview);
+	}
 
-		int bits = Math.max(4, MathHelper.log2DeBruijn(paletteNbt.size() + 1));
-		var blockStates = new SimpleBitStorage(bits, SIZE);
+	MapRegionFile getRegionFile() {
+		return this.regionFile;
+	}
 
-		for (int i = 0; i < SIZE; i++) {
-			var state = this.blockStates[i];
-			if (state == null) blockStates.set(i, 0);
-			else blockStates.set(i, palette.indexOf(state) + 1);
-		}
+	/**
+	 * Queues the given overview of the chunk to be added to the overview of its region, without saving the chunk.
+	 *
+	 * @param overview the overview of the chunk
+	 * @see WorldMap#renderOverview(MapChunk)
+	 */
+	void queueOverview(int[] overview) {
+		if (this.released || this.empty || this.regionFile == null)
+			return;
 
-		nbt.putLongArray("block_states", blockStates.getRaw());
+		this.regionFile.queueOverview(this.x, this.z, overview);
 	}
 
 	/**
-	 * Saves the chunk if it's dirty.
+	 * Queues the save of the chunk if it's dirty.
+	 * <p>
+	 * The chunk is snapshotted right away along with its overview, the snapshot is serialized and written later on the save thread.
 	 */
 	public void save() {
-		if (this.empty || !this.dirty || this.regionFile == null)
+		if (this.released || !this.dirty || this.regionFile == null)
 			return;
-		try {
-			this.lock();
-			this.regionFile.saveChunk(this);
-			this.dirty = false;
-			this.unlock();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+
+		this.dirty = false;
+		// Empty chunks aren't saved, putting the first color marks the chunk dirty again.
+		if (this.empty)
+			return;
+
+		this.regionFile.queueSave(this.snapshot(this.worldMap.renderOverview(this)));
 	}
 
-	public void unload() {
-		this.lock();
+	public synchronized void unload() {
+		if (this.released)
+			return;
+
 		if (this.regionFile != null) {
-			this.saveTask.cancel(false);
+			this.worldMap.dirtyChunks.remove(this);
+			this.save();
 			this.regionFile.unloadChunk(this);
 		}
 		this.dirty = false;
+
+		// The buffers go back to the pool, this chunk must not be used anymore.
+		this.released = true;
+		this.renderTile = null;
+		this.worldMap.pool.release(this.buffers);
 	}
 
 	@Override
@@ -395,7 +437,6 @@ public class MapChunk implements AutoCloseable {
 		return "MapChunk{" +
 				"x=" + this.x +
 				", z=" + this.z +
-				", locked=" + this.locked +
 				", empty=" + this.empty +
 				", dirty=" + this.dirty +
 				'}';
@@ -413,21 +454,52 @@ public class MapChunk implements AutoCloseable {
 		var chunk = new MapChunk(regionFile.worldMap(), regionFile, nbt.getInt("x"), nbt.getInt("z"));
 		byte[] colors = nbt.getByteArray("colors");
 		if (colors.length == SIZE) {
-			chunk.colors = colors;
+			chunk.colors.put(0, colors);
 		}
 		chunk.empty = false;
 
 		return readBlockPaletteNbt(readBiomesNbt(chunk, nbt), nbt);
 	}
 
+	/**
+	 * Creates a chunk from the snapshot of its pending save, without serializing it.
+	 *
+	 * @param regionFile the region file storing the chunk
+	 * @param snapshot the snapshot
+	 * @return the chunk
+	 */
+	public static MapChunk fromSnapshot(MapRegionFile regionFile, Snapshot snapshot) {
+		var chunk = new MapChunk(regionFile.worldMap(), regionFile, snapshot.x, snapshot.z);
+		chunk.colors.put(0, snapshot.colors);
+		chunk.empty = false;
+		chunk.biomes.load(snapshot.biomes.getPalette(), snapshot.biomes.copyRaw());
+		chunk.blockStates.load(snapshot.blockStates.getPalette(), snapshot.blockStates.copyRaw());
+		return chunk;
+	}
+
 	private static MapChunk readBiomesNbt(MapChunk chunk, NbtCompound nbt) {
 		var registry = chunk.worldMap.getBiomeRegistry();
 		if (registry != null) {
-			if (nbt.contains("biome", NbtType.STRING)) {
+			if (nbt.contains("biome_palette", NbtType.LIST) && nbt.contains("biome_indices", NbtType.LONG_ARRAY)) {
+				var paletteNbt = nbt.getList("biome_palette", NbtType.STRING);
+				var palette = new ArrayList<Biome>(paletteNbt.size());
+				for (int i = 0; i < paletteNbt.size(); i++) {
+					var id = Identifier.tryParse(paletteNbt.getString(i));
+					// Unknown biomes are kept in the palette as absent biomes to preserve the IDs.
+					palette.add(id == null ? null : registry.get(id));
+				}
+
+				try {
+					chunk.biomes.load(palette, nbt.getLongArray("biome_indices"));
+				} catch (RuntimeException e) {
+					LOGGER.error("Invalid biomes in map chunk ({}, {}), discarding them.", chunk.x, chunk.z, e);
+				}
+			} else if (nbt.contains("biome", NbtType.STRING)) {
+				// Legacy format.
 				var id = new Identifier(nbt.getString("biome"));
 				var biome = registry.get(id);
 				if (biome != null) {
-					for (int i = 0; i < SIZE; i++) chunk.biomes[i] = biome;
+					chunk.biomes.fill(biome);
 				}
 			} else if (nbt.contains("biomes", NbtType.LIST)) {
 				var biomesList = nbt.getList("biomes", NbtType.COMPOUND);
@@ -438,9 +510,8 @@ public class MapChunk implements AutoCloseable {
 							if (biome == null) return;
 
 							var bitSet = BitSet.valueOf(biomeNbt.getByteArray("mask"));
-							for (int i = 0; i < SIZE; i++) {
-								if (bitSet.get(i))
-									chunk.biomes[i] = biome;
+							for (int i = bitSet.nextSetBit(0); i >= 0 && i < SIZE; i = bitSet.nextSetBit(i + 1)) {
+								chunk.biomes.set(i, biome);
 							}
 						});
 			}
@@ -451,19 +522,15 @@ public class MapChunk implements AutoCloseable {
 	private static MapChunk readBlockPaletteNbt(MapChunk chunk, NbtCompound nbt) {
 		if (nbt.contains("palette", NbtType.LIST) && nbt.contains("block_states", NbtType.LONG_ARRAY)) {
 			var paletteNbt = nbt.getList("palette", NbtType.COMPOUND);
-			var palette = new Int2ObjectOpenHashMap<BlockState>();
+			var palette = new ArrayList<BlockState>(paletteNbt.size());
 			for (int i = 0; i < paletteNbt.size(); i++) {
-				palette.put(i + 1, NbtHelper.toBlockState(Registries.BLOCK.asLookup(), paletteNbt.getCompound(i)));
+				palette.add(NbtHelper.toBlockState(Registries.BLOCK.asLookup(), paletteNbt.getCompound(i)));
 			}
 
-			int bits = Math.max(4, MathHelper.log2DeBruijn(paletteNbt.size() + 1));
-			var blockStates = new SimpleBitStorage(bits, SIZE, nbt.getLongArray("block_states"));
-
-			for (int i = 0; i < SIZE; i++) {
-				int id = blockStates.get(i);
-				if (id != 0) {
-					chunk.blockStates[i] = palette.get(id);
-				}
+			try {
+				chunk.blockStates.load(palette, nbt.getLongArray("block_states"));
+			} catch (RuntimeException e) {
+				LOGGER.error("Invalid block states in map chunk ({}, {}), discarding them.", chunk.x, chunk.z, e);
 			}
 		}
 		return chunk;
@@ -491,8 +558,106 @@ public class MapChunk implements AutoCloseable {
 	 * @return {@code true} if the block state can be saved, else {@code false}
 	 */
 	private static boolean filterBlockState(BlockState state) {
-		var client = MinecraftClient.getInstance();
+		return LambdaMap.get().getBlockStateTable().hasTint(state);
+	}
+
+	/**
+	 * Represents an immutable snapshot of a map chunk.
+	 *
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	public static final class Snapshot {
+		private final int x;
+		private final int z;
+		private final byte[] colors;
+		private final @Nullable Registry<Biome> biomeRegistry;
+		private final PalettedStorage.Frozen<Biome> biomes;
+		private final PalettedStorage.Frozen<BlockState> blockStates;
+		private final int @Nullable [] overview;
+
+		private Snapshot(int x, int z, byte[] colors, @Nullable Registry<Biome> biomeRegistry,
+				PalettedStorage.Frozen<Biome> biomes, PalettedStorage.Frozen<BlockState> blockStates, int @Nullable [] overview) {
+			this.x = x;
+			this.z = z;
+			this.colors = colors;
+			this.biomeRegistry = biomeRegistry;
+			this.biomes = biomes;
+			this.blockStates = blockStates;
+			this.overview = overview;
+		}
+
+		public int getX() {
+			return this.x;
+		}
 
-		return ((BlockColorsAccessor) client.getBlockColors()).getProviders().get(Registries.BLOCK.getRawId(state.getBlock())) != null;
+		public int getZ() {
+			return this.z;
+		}
+
+		/**
+		 * {@return the rendered colors of the chunk sampled for the region overviews, or {@code null} if not rendered}
+		 *
+		 * @see dev.lambdaurora.lambdamap.map.storage.MapRegionOverview
+		 */
+		public int @Nullable [] getOverview() {
+			return this.overview;
+		}
+
+		/**
+		 * Returns the snapshot as NBT.
+		 *
+		 * @return the snapshot as NBT
+		 */
+		public NbtCompound toNbt() {
+			var nbt = new NbtCompound();
+			nbt.putInt("version", FORMAT_VERSION);
+			nbt.putInt("x", this.x);
+			nbt.putInt("z", this.z);
+			// The colors are already a private copy.
+			nbt.putByteArray("colors", this.colors);
+
+			this.writeBiomesNbt(nbt);
+			this.writeBlockPaletteNbt(nbt);
+
+			return nbt;
+		}
+
+		/**
+		 * Writes the biomes to the NBT.
+		 * <p>
+		 * Since format version 1 biomes are written as a palette of biome identifiers and the packed palette IDs,
+		 * using the amount of bits given by {@link PalettedStorage#bitsFor(int, int)} with a minimum of 1 bit.
+		 *
+		 * @param nbt the parent compound NBT
+		 */
+		private void writeBiomesNbt(NbtCompound nbt) {
+			if (this.biomeRegistry != null && !this.biomes.getPalette().isEmpty()) {
+				var paletteNbt = new NbtList();
+				for (var biome : this.biomes.getPalette()) {
+					var id = biome == null ? null : this.biomeRegistry.getId(biome);
+					paletteNbt.add(NbtString.of(id == null ? "" : id.toString()));
+				}
+				nbt.put("biome_palette", paletteNbt);
+				nbt.putLongArray("biome_indices", this.biomes.copyRaw());
+			}
+		}
+
+		/**
+		 * Writes the block palette as NBT.
+		 * <p>
+		 * The palette is maintained incrementally by {@link MapChunk#putBlockState(int, int, BlockState)},
+		 * so this only needs to copy the already packed IDs.
+		 *
+		 * @param nbt the parent compound NBT
+		 */
+		private void writeBlockPaletteNbt(NbtCompound nbt) {
+			var paletteNbt = new NbtList();
+			for (var state : this.blockStates.getPalette()) {
+				paletteNbt.add(NbtHelper.fromBlockState(state));
+			}
+			nbt.put("palette", paletteNbt);
+			nbt.putLongArray("block_states", this.blockStates.copyRaw());
+		}
 	}
 }
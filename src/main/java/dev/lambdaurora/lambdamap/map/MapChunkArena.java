@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents an off-heap slab allocator for map chunk pixel data.
+ * <p>
+ * Memory is reserved from the system in large direct slabs which are split into fixed-size pages.
+ * A map chunk only holds a page handle, freed pages are recycled by the next allocation instead of
+ * allocating new memory, which keeps the garbage collector out of chunk loading and unloading.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class MapChunkArena {
+	/**
+	 * The size of a page, enough to hold the 128x128 color IDs of a map chunk.
+	 */
+	public static final int PAGE_SIZE = 16384;
+	private static final int PAGES_PER_SLAB = 256;
+	private static final byte[] EMPTY_PAGE = new byte[PAGE_SIZE];
+
+	private final List<ByteBuffer> slabs = new ArrayList<>();
+	private final IntArrayList freePages = new IntArrayList();
+
+	/**
+	 * Allocates a zeroed page.
+	 *
+	 * @return the handle of the allocated page
+	 */
+	public synchronized int allocate() {
+		if (this.freePages.isEmpty()) {
+			this.grow();
+		}
+
+		int handle = this.freePages.popInt();
+		clearPage(this.page(handle));
+		return handle;
+	}
+
+	/**
+	 * Frees the given page, making it available for future allocations.
+	 *
+	 * @param handle the handle of the page to free
+	 */
+	public synchronized void free(int handle) {
+		if (handle / PAGES_PER_SLAB < this.slabs.size()) {
+			this.freePages.push(handle);
+		}
+	}
+
+	/**
+	 * Returns a view of the given page.
+	 *
+	 * @param handle the handle of the page
+	 * @return the page view, its capacity is {@link #PAGE_SIZE}
+	 */
+	public synchronized ByteBuffer page(int handle) {
+		return this.slabs.get(handle / PAGES_PER_SLAB).slice((handle % PAGES_PER_SLAB) * PAGE_SIZE, PAGE_SIZE);
+	}
+
+	/**
+	 * {@return the amount of pages currently reserved from the system}
+	 */
+	public synchronized int getReservedPages() {
+		return this.slabs.size() * PAGES_PER_SLAB;
+	}
+
+	/**
+	 * {@return the amount of pages currently in use}
+	 */
+	public synchronized int getUsedPages() {
+		return this.getReservedPages() - this.freePages.size();
+	}
+
+	/**
+	 * Fills the given page view with zeroes.
+	 *
+	 * @param page the page view
+	 */
+	public static void clearPage(ByteBuffer page) {
+		page.put(0, EMPTY_PAGE);
+	}
+
+	private void grow() {
+		int slab = this.slabs.size();
+		this.slabs.add(ByteBuffer.allocateDirect(PAGES_PER_SLAB * PAGE_SIZE));
+
+		// Push in reverse order so the lowest handles get allocated first.
+		for (int i = PAGES_PER_SLAB - 1; i >= 0; i--) {
+			this.freePages.push(slab * PAGES_PER_SLAB + i);
+		}
+	}
+
+	/**
+	 * Releases all the slabs of this arena, every handle previously allocated becomes invalid.
+	 */
+	public synchronized void close() {
+		this.slabs.clear();
+		this.freePages.clear();
+	}
+}
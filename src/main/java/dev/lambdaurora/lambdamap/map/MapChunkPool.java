@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.world.biome.Biome;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Represents a bounded pool of cleared map chunk backing buffers.
+ * <p>
+ * Map chunks draw their buffers from this pool when created or loaded, and give them back when unloaded,
+ * so that moving back and forth across the same area doesn't keep allocating and discarding buffers.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class MapChunkPool {
+	private final MapChunkArena arena;
+	private final int capacity;
+	private final ArrayDeque<Buffers> pool;
+	private long hits = 0;
+	private long misses = 0;
+
+	public MapChunkPool(MapChunkArena arena, int capacity) {
+		this.arena = arena;
+		this.capacity = capacity;
+		this.pool = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * Takes cleared buffers from the pool, or allocates new ones if the pool is empty.
+	 *
+	 * @return the cleared buffers
+	 */
+	public synchronized Buffers acquire() {
+		var buffers = this.pool.poll();
+
+		if (buffers == null) {
+			this.misses++;
+			int page = this.arena.allocate();
+			return new Buffers(page, this.arena.page(page));
+		}
+
+		this.hits++;
+		return buffers;
+	}
+
+	/**
+	 * Clears the given buffers and gives them back to the pool.
+	 * If the pool is full, the buffers are discarded instead.
+	 *
+	 * @param buffers the buffers to release
+	 */
+	public void release(Buffers buffers) {
+		buffers.clear();
+
+		synchronized (this) {
+			if (this.pool.size() < this.capacity) {
+				this.pool.push(buffers);
+				return;
+			}
+		}
+
+		this.arena.free(buffers.colorsPage);
+	}
+
+	/**
+	 * {@return the amount of acquisitions which were served by a pooled buffer}
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * {@return the amount of acquisitions which needed new buffers}
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Represents the backing buffers of a map chunk.
+	 *
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	public static final class Buffers {
+		final int colorsPage;
+		final ByteBuffer colors;
+		final PalettedStorage<Biome> biomes = new PalettedStorage<>(MapChunk.SIZE, 1);
+		final PalettedStorage<BlockState> blockStates = new PalettedStorage<>(MapChunk.SIZE, 4);
+
+		private Buffers(int colorsPage, ByteBuffer colors) {
+			this.colorsPage = colorsPage;
+			this.colors = colors;
+		}
+
+		private void clear() {
+			MapChunkArena.clearPage(this.colors);
+			this.biomes.clear();
+			this.blockStates.clear();
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.util.math.MathHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a palette-indexed storage of objects.
+ * <p>
+ * Each distinct value is stored once in the palette, the storage itself only holds bit-packed palette IDs.
+ * The ID {@code 0} is reserved for {@code null}, the palette entry at index {@code i} has the ID {@code i + 1}.
+ * <p>
+ * The amount of bits used per entry always equals {@code max(minBits, ceil(log2(paletteSize + 1)))},
+ * it grows as new values are added and is shrunk back when unused palette entries are compacted.
+ * <p>
+ * The storage can be {@linkplain #freeze() frozen} to get a read-only view of its current content in constant time,
+ * the palette and the packed IDs are then shared with the frozen view and copied on the next modification.
+ *
+ * @param <T> the type of the stored values
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class PalettedStorage<T> {
+	private final int size;
+	private final int minBits;
+	private List<T> palette = new ArrayList<>();
+	private final Reference2IntOpenHashMap<T> ids = new Reference2IntOpenHashMap<>();
+	private SimpleBitStorage data;
+	/**
+	 * {@code true} if the palette and the packed IDs are shared with a frozen view, and must be copied before being modified.
+	 */
+	private boolean shared = false;
+
+	public PalettedStorage(int size, int minBits) {
+		this.size = size;
+		this.minBits = minBits;
+		this.ids.defaultReturnValue(0);
+		this.data = new SimpleBitStorage(minBits, size);
+	}
+
+	/**
+	 * {@return the amount of entries in this storage}
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * {@return the amount of bits used per entry}
+	 */
+	public int getBits() {
+		return this.data.getElementBits();
+	}
+
+	/**
+	 * {@return a read-only view of the palette, the entry at index {@code i} has the ID {@code i + 1}}
+	 */
+	public List<T> getPalette() {
+		return Collections.unmodifiableList(this.palette);
+	}
+
+	/**
+	 * {@return a copy of the packed palette IDs}
+	 */
+	public long[] copyRaw() {
+		return this.data.getRaw().clone();
+	}
+
+	/**
+	 * Replaces the content of this storage with the given palette and packed IDs.
+	 * <p>
+	 * The packed IDs must use the amount of bits given by {@link #bitsFor(int, int)} for the size of the palette.
+	 * Palette entries may be {@code null}, in which case the entries referencing them are read as {@code null}.
+	 *
+	 * @param palette the palette
+	 * @param raw the packed palette IDs
+	 * @throws RuntimeException if the packed IDs don't match the size of the storage
+	 */
+	public void load(List<T> palette, long[] raw) {
+		var data = new SimpleBitStorage(bitsFor(palette.size(), this.minBits), this.size, raw);
+
+		this.palette = new ArrayList<>(palette);
+		this.shared = false;
+		this.ids.clear();
+		for (int i = this.palette.size() - 1; i >= 0; i--) {
+			this.ids.put(this.palette.get(i), i + 1);
+		}
+		this.data = data;
+	}
+
+	/**
+	 * Returns the value at the specified index.
+	 *
+	 * @param index the index
+	 * @return the value if present, else {@code null}
+	 */
+	public @Nullable T get(int index) {
+		int id = this.data.get(index);
+		return id == 0 ? null : this.palette.get(id - 1);
+	}
+
+	/**
+	 * Sets the value at the specified index.
+	 *
+	 * @param index the index
+	 * @param value the value, may be {@code null}
+	 * @return {@code true} if the stored value changed, else {@code false}
+	 */
+	public boolean set(int index, @Nullable T value) {
+		int id = value == null ? 0 : this.ids.getInt(value);
+
+		if (this.shared) {
+			// Only copy the shared content if the value actually changes.
+			if (this.data.get(index) == id && (id != 0 || value == null))
+				return false;
+			this.unshare();
+		}
+
+		if (id == 0) {
+			if (value == null) {
+				if (this.data.get(index) == 0)
+					return false;
+			} else {
+				id = this.addToPalette(value);
+			}
+		} else if (this.data.get(index) == id) {
+			return false;
+		}
+
+		this.data.set(index, id);
+		return true;
+	}
+
+	/**
+	 * Fills the whole storage with the given value.
+	 *
+	 * @param value the value, may be {@code null}
+	 */
+	public void fill(@Nullable T value) {
+		this.clear();
+
+		if (value != null) {
+			int id = this.addToPalette(value);
+			for (int i = 0; i < this.size; i++) {
+				this.data.set(i, id);
+			}
+		}
+	}
+
+	/**
+	 * Clears this storage, all entries are set to {@code null} and the palette is emptied.
+	 */
+	public void clear() {
+		this.ids.clear();
+
+		if (this.shared) {
+			// The frozen view keeps the old content, start over with new storage.
+			this.palette = new ArrayList<>();
+			this.data = new SimpleBitStorage(this.minBits, this.size);
+			this.shared = false;
+			return;
+		}
+
+		this.palette.clear();
+		if (this.data.getElementBits() == this.minBits) {
+			long[] raw = this.data.getRaw();
+			for (int i = 0; i < raw.length; i++) raw[i] = 0L;
+		} else {
+			this.data = new SimpleBitStorage(this.minBits, this.size);
+		}
+	}
+
+	/**
+	 * Freezes the current content of this storage.
+	 * <p>
+	 * The returned view shares the palette and the packed IDs with this storage, which copies them on its next modification.
+	 * The view is immutable and can be read from any thread.
+	 *
+	 * @return the frozen view
+	 */
+	public Frozen<T> freeze() {
+		this.shared = true;
+		return new Frozen<>(Collections.unmodifiableList(this.palette), this.data.getRaw());
+	}
+
+	private void unshare() {
+		this.palette = new ArrayList<>(this.palette);
+		this.data = new SimpleBitStorage(this.data.getElementBits(), this.size, this.data.getRaw().clone());
+		this.shared = false;
+	}
+
+	private int addToPalette(T value) {
+		if (bitsFor(this.palette.size() + 1, this.minBits) > this.data.getElementBits()) {
+			// Before growing, attempt to get rid of the entries which are not referenced anymore.
+			this.compact();
+		}
+
+		this.palette.add(value);
+		int id = this.palette.size();
+		this.ids.put(value, id);
+
+		int bits = bitsFor(this.palette.size(), this.minBits);
+		if (bits != this.data.getElementBits()) {
+			this.repack(bits, null);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Removes the palette entries which are no longer referenced by any entry.
+	 */
+	private void compact() {
+		int[] usage = new int[this.palette.size() + 1];
+		for (int i = 0; i < this.size; i++) {
+			usage[this.data.get(i)]++;
+		}
+
+		int[] remap = new int[usage.length];
+		var newPalette = new ArrayList<T>(this.palette.size());
+		for (int id = 1; id < usage.length; id++) {
+			if (usage[id] != 0) {
+				newPalette.add(this.palette.get(id - 1));
+				remap[id] = newPalette.size();
+			}
+		}
+
+		if (newPalette.size() == this.palette.size())
+			return;
+
+		this.palette = newPalette;
+		this.ids.clear();
+		for (int i = 0; i < this.palette.size(); i++) {
+			this.ids.put(this.palette.get(i), i + 1);
+		}
+
+		this.repack(bitsFor(this.palette.size(), this.minBits), remap);
+	}
+
+	private void repack(int bits, int @Nullable [] remap) {
+		var newData = new SimpleBitStorage(bits, this.size);
+		for (int i = 0; i < this.size; i++) {
+			int id = this.data.get(i);
+			newData.set(i, remap == null ? id : remap[id]);
+		}
+		this.data = newData;
+	}
+
+	/**
+	 * Returns the amount of bits needed to store the IDs of a palette of the given size.
+	 *
+	 * @param paletteSize the size of the palette, excluding the {@code null} entry
+	 * @param minBits the minimum amount of bits
+	 * @return the amount of bits
+	 */
+	public static int bitsFor(int paletteSize, int minBits) {
+		return Math.max(minBits, MathHelper.log2DeBruijn(paletteSize + 1));
+	}
+
+	/**
+	 * Represents a frozen view of a paletted storage.
+	 *
+	 * @param <T> the type of the stored values
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	public static final class Frozen<T> {
+		private final List<T> palette;
+		private final long[] raw;
+
+		private Frozen(List<T> palette, long[] raw) {
+			this.palette = palette;
+			this.raw = raw;
+		}
+
+		/**
+		 * {@return the palette, the entry at index {@code i} has the ID {@code i + 1}}
+		 */
+		public List<T> getPalette() {
+			return this.palette;
+		}
+
+		/**
+		 * {@return a copy of the packed palette IDs}
+		 */
+		public long[] copyRaw() {
+			return this.raw.clone();
+		}
+	}
+}
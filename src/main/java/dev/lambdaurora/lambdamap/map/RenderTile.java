@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map;
+
+/**
+ * Represents the cached render colors of a map chunk, repainted only in the rectangle which changed since the last render.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ * @see WorldMap#renderArea(int, int, int, int, int, ChunkGetterMode, int[])
+ */
+final class RenderTile {
+	private final int[] pixels = new int[MapChunk.SIZE];
+	/**
+	 * The render generation of the world map the pixels have been rendered for.
+	 */
+	private int generation;
+	private int dirtyMinX;
+	private int dirtyMinZ;
+	private int dirtyMaxX;
+	private int dirtyMaxZ;
+
+	RenderTile(int generation) {
+		this.generation = generation;
+		this.invalidateAll();
+	}
+
+	/**
+	 * {@return the render colors, row by row}
+	 */
+	int[] getPixels() {
+		return this.pixels;
+	}
+
+	/**
+	 * Invalidates the whole tile if it has been rendered for another render generation.
+	 *
+	 * @param generation the current render generation of the world map
+	 */
+	void checkGeneration(int generation) {
+		if (this.generation != generation) {
+			this.generation = generation;
+			this.invalidateAll();
+		}
+	}
+
+	void invalidateAll() {
+		this.invalidate(0, 0, 127, 127);
+	}
+
+	/**
+	 * Invalidates the given rectangle, coordinates are local to the chunk and clamped to it.
+	 *
+	 * @param minX the minimum X-coordinate, inclusive
+	 * @param minZ the minimum Z-coordinate, inclusive
+	 * @param maxX the maximum X-coordinate, inclusive
+	 * @param maxZ the maximum Z-coordinate, inclusive
+	 */
+	void invalidate(int minX, int minZ, int maxX, int maxZ) {
+		minX = Math.max(0, minX);
+		minZ = Math.max(0, minZ);
+		maxX = Math.min(127, maxX);
+		maxZ = Math.min(127, maxZ);
+		if (minX > maxX || minZ > maxZ)
+			return;
+
+		if (this.isDirty()) {
+			this.dirtyMinX = Math.min(this.dirtyMinX, minX);
+			this.dirtyMinZ = Math.min(this.dirtyMinZ, minZ);
+			this.dirtyMaxX = Math.max(this.dirtyMaxX, maxX);
+			this.dirtyMaxZ = Math.max(this.dirtyMaxZ, maxZ);
+		} else {
+			this.dirtyMinX = minX;
+			this.dirtyMinZ = minZ;
+			this.dirtyMaxX = maxX;
+			this.dirtyMaxZ = maxZ;
+		}
+	}
+
+	boolean isDirty() {
+		return this.dirtyMinX <= this.dirtyMaxX;
+	}
+
+	int getDirtyMinX() {
+		return this.dirtyMinX;
+	}
+
+	int getDirtyMinZ() {
+		return this.dirtyMinZ;
+	}
+
+	int getDirtyMaxX() {
+		return this.dirtyMaxX;
+	}
+
+	int getDirtyMaxZ() {
+		return this.dirtyMaxZ;
+	}
+
+	void markClean() {
+		this.dirtyMinX = this.dirtyMinZ = 128;
+		this.dirtyMaxX = this.dirtyMaxZ = -1;
+	}
+}
@@ -23,11 +23,22 @@ import dev.lambdaurora.lambdamap.map.marker.Marker;
 import dev.lambdaurora.lambdamap.map.marker.MarkerManager;
 import dev.lambdaurora.lambdamap.map.marker.MarkerType;
 import dev.lambdaurora.lambdamap.map.storage.MapRegionFile;
+import dev.lambdaurora.lambdamap.map.storage.MapRegionOverview;
 import dev.lambdaurora.lambdamap.mixin.MapColorAccessor;
 import dev.lambdaurora.lambdamap.util.ClientWorldWrapper;
 import dev.lambdaurora.spruceui.util.ColorUtil;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.block.MapColor;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.item.map.MapState;
@@ -45,9 +56,15 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the world map.
@@ -59,15 +76,103 @@ import java.util.concurrent.ScheduledExecutorService;
 public class WorldMap {
 	private static final Logger LOGGER = LogManager.getLogger();
 
-	private static final int VIEW_RANGE = 10000;
+	private static final int CHUNK_POOL_CAPACITY = 64;
+	private static final int IO_THREADS = 2;
+	/**
+	 * The height in blocks of a cave layer.
+	 */
+	public static final int LAYER_HEIGHT = 16;
+	/**
+	 * The layer of the maps which aren't split in cave layers.
+	 */
+	public static final int NO_LAYER = Integer.MIN_VALUE;
+	/**
+	 * The radius in blocks of the blending of water colors between biomes.
+	 */
+	public static final int WATER_BLEND_RADIUS = 2;
+	/**
+	 * The maximum amount of overview pixels kept in memory.
+	 */
+	private static final int OVERVIEW_CACHE_PIXELS = 1 << 22;
+	/**
+	 * The cached value of the region overviews which don't exist.
+	 */
+	private static final int[] NO_OVERVIEW = new int[0];
+	/**
+	 * Returned for the region overviews which are being read.
+	 */
+	private static final int[] PENDING_OVERVIEW = new int[0];
+	/**
+	 * The time a region file is remembered as missing, in nanoseconds.
+	 */
+	private static final long MISSING_REGION_DURATION = TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * The automatic limit of loaded chunks, as a multiple of the amount of chunks the views may pin.
+	 */
+	private static final int AUTO_MAX_LOADED_CHUNKS_FACTOR = 2;
 
 	private final Long2ObjectMap<MapRegionFile> regionFiles = new Long2ObjectOpenHashMap<>();
-	private final Long2ObjectMap<MapChunk> chunks = new Long2ObjectOpenHashMap<>();
+	/**
+	 * Stores the region files of the previous cave layers which are closed once their saves are written.
+	 */
+	private final Set<MapRegionFile> closingRegionFiles = new ReferenceOpenHashSet<>();
+	/**
+	 * Stores the loaded chunks, in the order they are swept for eviction.
+	 */
+	private final Long2ObjectLinkedOpenHashMap<MapChunk> chunks = new Long2ObjectLinkedOpenHashMap<>();
 	private final MinecraftClient client = MinecraftClient.getInstance();
 	private final File directory;
+	private File regionDirectory;
+	private int layer;
 	private final MarkerManager markerManager;
+	private final ChunkPrefetcher prefetcher = new ChunkPrefetcher(this);
+	/**
+	 * {@code true} if the last eviction sweep only found pinned chunks, the pinned areas it found are kept
+	 * so the next sweep only happens once a chunk is loaded or the pinned areas change.
+	 */
+	private boolean allChunksPinned = false;
+	private int[] sweptPinnedAreas = new int[0];
 
 	final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+	private final ExecutorService ioService = Executors.newFixedThreadPool(IO_THREADS, runnable -> {
+		var thread = new Thread(runnable, "LambdaMap I/O");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Stores the generation of the loads of the chunks which are being loaded asynchronously, by packed chunk position.
+	 * <p>
+	 * A chunk added to the map otherwise cancels its load, whose result is then dropped.
+	 */
+	private final Long2IntMap loadingChunks = new Long2IntOpenHashMap();
+	private int loadGeneration = 0;
+	/**
+	 * Stores the region files which are being opened asynchronously, by packed region position.
+	 */
+	private final Long2ObjectMap<RegionLoad> loadingRegions = new Long2ObjectOpenHashMap<>();
+	/**
+	 * Stores the time until which the region files found missing aren't looked up again, by packed region position.
+	 */
+	private final Long2LongMap missingRegions = new Long2LongOpenHashMap();
+	/**
+	 * Stores the region overviews read from disk in access order, keyed by {@link #getOverviewKey(int, int, int)}.
+	 */
+	private final Long2ObjectLinkedOpenHashMap<int[]> overviews = new Long2ObjectLinkedOpenHashMap<>();
+	private int overviewPixels = 0;
+	/**
+	 * Stores the region overviews which are being read asynchronously, keyed by {@link #getOverviewKey(int, int, int)}.
+	 */
+	private final Long2ObjectMap<CompletableFuture<int @Nullable []>> loadingOverviews = new Long2ObjectOpenHashMap<>();
+	/**
+	 * Stores the positions of the chunks missing from the overview of their region whose overview has been queued.
+	 */
+	private final LongSet backfilledOverviews = new LongOpenHashSet();
+	/**
+	 * Stores the chunks which have been modified since they were last saved.
+	 */
+	final Set<MapChunk> dirtyChunks = new ReferenceLinkedOpenHashSet<>();
+	final MapChunkArena arena = new MapChunkArena();
+	final MapChunkPool pool = new MapChunkPool(this.arena, CHUNK_POOL_CAPACITY);
 
 	private final World world;
 
@@ -75,25 +180,151 @@ public class WorldMap {
 	private double viewZ = 0;
 	private double playerViewX = 0;
 	private double playerViewZ = 0;
+	private boolean unloaded = false;
+	private final CompletableFuture<Void> unloadFuture = new CompletableFuture<>();
+	/**
+	 * The render generation, incremented when the render settings change to invalidate every render tile.
+	 */
+	private int renderGeneration = 0;
+	private boolean renderBiomeColors;
+	private int renderBiomeBlendRadius = -1;
 
 	public WorldMap(World world, File directory) {
+		this(world, directory, NO_LAYER);
+	}
+
+	/**
+	 * Creates a world map.
+	 * <p>
+	 * The map keeps its save and I/O threads and its markers when {@linkplain #switchLayer(int) switching cave layer}.
+	 *
+	 * @param world the world
+	 * @param directory the directory of the map, which stores the markers
+	 * @param layer the cave layer of the map, or {@link #NO_LAYER}
+	 */
+	public WorldMap(World world, File directory, int layer) {
 		this.directory = directory;
-		if (!this.directory.exists())
-			this.directory.mkdirs();
+		this.layer = layer;
+		this.regionDirectory = getRegionDirectory(directory, layer);
+		if (!this.regionDirectory.exists())
+			this.regionDirectory.mkdirs();
 		this.markerManager = new MarkerManager(this);
 		this.markerManager.load();
 
 		this.world = world;
+
+		int autosaveInterval = LambdaMap.get().getConfig().getAutosaveInterval();
+		this.service.scheduleWithFixedDelay(() -> this.client.execute(this::saveDirtyChunks),
+				autosaveInterval, autosaveInterval, TimeUnit.SECONDS);
 	}
 
 	public File getDirectory() {
 		return this.directory;
 	}
 
+	/**
+	 * {@return the directory storing the region files of this map, which depends on the cave layer}
+	 */
+	public File getRegionDirectory() {
+		return this.regionDirectory;
+	}
+
+	/**
+	 * {@return the directory storing the region files of the given cave layer}
+	 *
+	 * @param directory the directory of the map
+	 * @param layer the cave layer, or {@link #NO_LAYER}
+	 */
+	public static File getRegionDirectory(File directory, int layer) {
+		return layer == NO_LAYER ? directory : new File(directory, "layers/" + layer);
+	}
+
+	/**
+	 * {@return the cave layer of this map, or {@link #NO_LAYER} if this map isn't split in cave layers}
+	 */
+	public int getLayer() {
+		return this.layer;
+	}
+
+	/**
+	 * Switches this map to the given cave layer, only the region directory and the loaded chunks change.
+	 * <p>
+	 * The chunks of the previous layer are saved and unloaded, its region files are closed once their saves are written.
+	 * The region files being opened are awaited, so they are closed along with the others.
+	 *
+	 * @param layer the cave layer, or {@link #NO_LAYER}
+	 * @return {@code true} if the layer has been switched,
+	 * or {@code false} if region files of the given layer are still being closed, so they are never open twice
+	 */
+	public boolean switchLayer(int layer) {
+		var regionDirectory = getRegionDirectory(this.directory, layer);
+		for (var regionFile : this.closingRegionFiles) {
+			if (regionFile.getDirectory().equals(regionDirectory))
+				return false;
+		}
+
+		this.chunks.forEach((pos, chunk) -> chunk.unload());
+		this.chunks.clear();
+		this.dirtyChunks.clear();
+		// The chunks being read are dropped once read, as their load generation no longer matches.
+		this.loadingChunks.clear();
+
+		for (var entry : Long2ObjectMaps.fastIterable(this.loadingRegions)) {
+			var regionFile = entry.getValue().future.join();
+			if (regionFile != null)
+				this.regionFiles.put(entry.getLongKey(), regionFile);
+		}
+		this.loadingRegions.clear();
+
+		this.closingRegionFiles.addAll(this.regionFiles.values());
+		this.regionFiles.clear();
+		new ArrayList<>(this.closingRegionFiles).forEach(MapRegionFile::closeIfUnused);
+
+		this.missingRegions.clear();
+		this.overviews.clear();
+		this.overviewPixels = 0;
+		// The overviews being read are dropped once read.
+		this.loadingOverviews.clear();
+		this.backfilledOverviews.clear();
+		this.allChunksPinned = false;
+
+		this.layer = layer;
+		this.regionDirectory = regionDirectory;
+		if (!this.regionDirectory.exists())
+			this.regionDirectory.mkdirs();
+		return true;
+	}
+
+	/**
+	 * Returns the height the map search starts from in dimensions with a ceiling.
+	 * <p>
+	 * For a cave layer it's right above the top of the layer, otherwise it's the configured scan height.
+	 *
+	 * @return the scan height
+	 */
+	public int getCeilingScanHeight() {
+		if (this.layer != NO_LAYER)
+			return (this.layer + 1) * LAYER_HEIGHT;
+		return LambdaMap.get().getConfig().getCeilingScanHeight();
+	}
+
+	/**
+	 * {@return the cave layer containing the given height}
+	 *
+	 * @param y the height
+	 */
+	public static int getLayer(int y) {
+		return Math.floorDiv(y, LAYER_HEIGHT);
+	}
+
 	public MarkerManager getMarkerManager() {
 		return this.markerManager;
 	}
 
+	public ChunkPrefetcher getPrefetcher() {
+		return this.prefetcher;
+	}
+
 	public World getWorld() {
 		return this.world;
 	}
@@ -142,27 +373,393 @@ public class WorldMap {
 	 * @param z the Z coordinate
 	 * @param mode the chunk getter mode
 	 * @return the ARGB color
+	 * @see #renderArea(int, int, int, int, int, ChunkGetterMode, int[])
 	 */
 	public int getRenderColor(int x, int z, ChunkGetterMode mode) {
 		var chunk = mode.getChunk(this, MapChunk.blockToChunk(x), MapChunk.blockToChunk(z));
 		if (chunk == null || chunk.isEmpty())
 			return 0;
+		return this.getRenderColor(chunk, x, z, mode, LambdaMap.get().getConfig().shouldRenderBiomeColors(),
+				new ClientWorldWrapper(this.client.world, chunk), new BlockPos.Mutable());
+	}
+
+	/**
+	 * Renders an area of the map into the given buffer of ARGB colors, row by row.
+	 * <p>
+	 * Each map chunk covered by the area is resolved once, and its pixels are rendered in a single pass.
+	 *
+	 * @param cornerX the X coordinate of the north-west corner of the area
+	 * @param cornerZ the Z coordinate of the north-west corner of the area
+	 * @param width the width of the rendered area in pixels
+	 * @param height the height of the rendered area in pixels
+	 * @param scale the amount of blocks per pixel
+	 * @param mode the chunk getter mode
+	 * @param colors the buffer of colors, of at least {@code width * height} colors
+	 */
+	public void renderArea(int cornerX, int cornerZ, int width, int height, int scale, ChunkGetterMode mode, int[] colors) {
+		this.renderArea(cornerX, cornerZ, width, height, scale, mode, 0, colors);
+	}
+
+	/**
+	 * Renders an area of the map into the given buffer of ARGB colors, row by row, reading the region overviews where possible.
+	 * <p>
+	 * If the scale matches the level of a region overview and the corner is aligned to the scale,
+	 * the chunks which aren't loaded are read from the overviews instead of being loaded.
+	 * The overviews are read asynchronously, the chunks which aren't loaded are left blank until the overview of their region is read.
+	 * The chunks missing from the overviews are loaded asynchronously, and added to the overviews once loaded
+	 * so the maps explored before the overviews existed get them. These chunks aren't pinned by the view,
+	 * they are evicted like any other chunk once the limit of loaded chunks is reached.
+	 *
+	 * @param cornerX the X coordinate of the north-west corner of the area
+	 * @param cornerZ the Z coordinate of the north-west corner of the area
+	 * @param width the width of the rendered area in pixels
+	 * @param height the height of the rendered area in pixels
+	 * @param scale the amount of blocks per pixel
+	 * @param colors the buffer of colors, of at least {@code width * height} colors
+	 * @see MapRegionOverview
+	 */
+	public void renderOverviewArea(int cornerX, int cornerZ, int width, int height, int scale, int[] colors) {
+		int level = getOverviewLevel(scale);
+		if (Math.floorMod(cornerX, scale) != 0 || Math.floorMod(cornerZ, scale) != 0)
+			level = 0;
+
+		this.renderArea(cornerX, cornerZ, width, height, scale, ChunkGetterMode.LOAD_ASYNC, level, colors);
+	}
+
+	/**
+	 * {@return the level of the region overviews matching the given scale, or {@code 0} if no overview level matches}
+	 *
+	 * @param scale the amount of blocks per pixel
+	 */
+	public static int getOverviewLevel(int scale) {
+		int level = Integer.numberOfTrailingZeros(scale);
+		if (scale != 1 << level || level < MapRegionOverview.MIN_LEVEL || level > MapRegionOverview.MAX_LEVEL)
+			return 0;
+		return level;
+	}
+
+	private void renderArea(int cornerX, int cornerZ, int width, int height, int scale, ChunkGetterMode mode,
+			int overviewLevel, int[] colors) {
+		boolean biomeColors = LambdaMap.get().getConfig().shouldRenderBiomeColors();
+		this.checkRenderSettings(biomeColors);
+		var pos = new BlockPos.Mutable();
+
+		int startChunkX = MapChunk.blockToChunk(cornerX);
+		int startChunkZ = MapChunk.blockToChunk(cornerZ);
+		int endChunkX = MapChunk.blockToChunk(cornerX + (width - 1) * scale);
+		int endChunkZ = MapChunk.blockToChunk(cornerZ + (height - 1) * scale);
+
+		for (int chunkZ = startChunkZ; chunkZ <= endChunkZ; chunkZ++) {
+			// The rows of pixels which are in this row of chunks.
+			int startRow = Math.max(0, ceilDiv((chunkZ << 7) - cornerZ, scale));
+			int endRow = Math.min(height, ceilDiv(((chunkZ + 1) << 7) - cornerZ, scale));
+
+			for (int chunkX = startChunkX; chunkX <= endChunkX; chunkX++) {
+				int startColumn = Math.max(0, ceilDiv((chunkX << 7) - cornerX, scale));
+				int endColumn = Math.min(width, ceilDiv(((chunkX + 1) << 7) - cornerX, scale));
+
+				MapChunk chunk = null;
+				boolean backfill = false;
+				if (overviewLevel != 0) {
+					var overview = this.getOverview(MapChunk.chunkToRegion(chunkX), MapChunk.chunkToRegion(chunkZ), overviewLevel);
+					// Loaded chunks may be more recent than the overviews.
+					chunk = this.getChunk(chunkX, chunkZ);
+					backfill = overview != PENDING_OVERVIEW && !isInOverview(overview, chunkX, chunkZ, overviewLevel);
+					if (chunk == null) {
+						if (overview == PENDING_OVERVIEW) {
+							// The tiles are invalidated once the overview is read.
+							fillBlank(colors, width, startRow, endRow, startColumn, endColumn);
+							continue;
+						} else if (overview != null && this.renderChunkOverview(overview, chunkX, chunkZ, cornerX, cornerZ, width, scale,
+								overviewLevel, startRow, endRow, startColumn, endColumn, colors)) {
+							continue;
+						}
+					}
+				}
+
+				if (chunk == null)
+					chunk = mode.getChunk(this, chunkX, chunkZ);
+				if (chunk == null || chunk.isEmpty()) {
+					fillBlank(colors, width, startRow, endRow, startColumn, endColumn);
+					continue;
+				}
+
+				var pixels = this.getRenderTile(chunk, mode, biomeColors, pos);
+				if (backfill && this.backfilledOverviews.add(ChunkPos.toLong(chunkX, chunkZ)))
+					chunk.queueOverview(MapRegionOverview.sampleChunk(pixels));
+
+				int startX = cornerX + startColumn * scale - chunk.getStartX();
+				for (int row = startRow; row < endRow; row++) {
+					int tileRow = (cornerZ + row * scale - chunk.getStartZ()) * 128;
+					if (scale == 1) {
+						System.arraycopy(pixels, tileRow + startX, colors, row * width + startColumn, endColumn - startColumn);
+					} else {
+						for (int column = startColumn, x = startX; column < endColumn; column++, x += scale) {
+							colors[row * width + column] = pixels[tileRow + x];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void fillBlank(int[] colors, int width, int startRow, int endRow, int startColumn, int endColumn) {
+		for (int row = startRow; row < endRow; row++) {
+			Arrays.fill(colors, row * width + startColumn, row * width + endColumn, 0);
+		}
+	}
+
+	/**
+	 * Renders the part of a chunk in the area from the overview of its region.
+	 *
+	 * @return {@code true} if the chunk is present in the overview, else {@code false}
+	 */
+	private boolean renderChunkOverview(int[] overview, int chunkX, int chunkZ, int cornerX, int cornerZ, int width, int scale,
+			int level, int startRow, int endRow, int startColumn, int endColumn, int[] colors) {
+		if (!isInOverview(overview, chunkX, chunkZ, level))
+			return false;
+
+		int size = MapRegionOverview.getSize(level);
+		int startX = ((cornerX + startColumn * scale) & 1023) >> level;
+		for (int row = startRow; row < endRow; row++) {
+			int overviewRow = (((cornerZ + row * scale) & 1023) >> level) * size;
+			for (int column = startColumn, x = startX; column < endColumn; column++, x++) {
+				int color = overview[overviewRow + x];
+				colors[row * width + column] = color == MapRegionOverview.EMPTY ? 0 : color;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * {@return {@code true} if the given chunk is present in the given overview of its region, or {@code false} otherwise}
+	 */
+	private static boolean isInOverview(int @Nullable [] overview, int chunkX, int chunkZ, int level) {
+		if (overview == null)
+			return false;
+
+		int size = MapRegionOverview.getSize(level);
+		int chunkSize = 128 >> level;
+		// The chunk hasn't been saved since the overview exists if its first pixel is fully transparent.
+		return overview[(chunkZ & 7) * chunkSize * size + (chunkX & 7) * chunkSize] != 0;
+	}
+
+	/**
+	 * Returns the cached overview of a region, or starts reading it on the I/O threads.
+	 *
+	 * @return the pixels of the overview, {@link #PENDING_OVERVIEW} if it is being read, or {@code null} if it doesn't exist
+	 */
+	private int @Nullable [] getOverview(int regionX, int regionZ, int level) {
+		long key = getOverviewKey(regionX, regionZ, level);
+		var overview = this.overviews.getAndMoveToLast(key);
+
+		if (overview == null) {
+			if (!this.unloaded && !this.loadingOverviews.containsKey(key))
+				this.loadOverview(key, regionX, regionZ, level);
+			return PENDING_OVERVIEW;
+		}
+
+		return overview == NO_OVERVIEW ? null : overview;
+	}
+
+	private void loadOverview(long key, int regionX, int regionZ, int level) {
+		var regionDirectory = this.regionDirectory;
+		var future = CompletableFuture.supplyAsync(() -> MapRegionOverview.read(regionDirectory, regionX, regionZ, level),
+				this.ioService);
+		this.loadingOverviews.put(key, future);
+
+		future.whenCompleteAsync((overview, error) -> {
+			// A more recent overview has been handed by the save thread meanwhile.
+			if (!this.loadingOverviews.remove(key, future) || this.unloaded)
+				return;
+
+			if (error != null)
+				LOGGER.error("Could not read the overview of region (" + regionX + ", " + regionZ + ") at level " + level + ".", error);
+
+			this.cacheOverview(key, overview != null ? overview : NO_OVERVIEW);
+
+			var renderer = LambdaMap.get().getRenderer();
+			for (int chunkZ = 0; chunkZ < 8; chunkZ++) {
+				for (int chunkX = 0; chunkX < 8; chunkX++) {
+					renderer.onChunkLoaded((regionX << 3) + chunkX, (regionZ << 3) + chunkZ);
+				}
+			}
+		}, this.client);
+	}
+
+	private void cacheOverview(long key, int[] overview) {
+		var old = this.overviews.put(key, overview);
+		if (old != null)
+			this.overviewPixels -= old.length;
+		this.overviewPixels += overview.length;
+
+		while (this.overviewPixels > OVERVIEW_CACHE_PIXELS && this.overviews.size() > 1) {
+			this.overviewPixels -= this.overviews.removeFirst().length;
+		}
+	}
+
+	private static long getOverviewKey(int regionX, int regionZ, int level) {
+		return ChunkPos.toLong(regionX, regionZ) ^ ((long) level << 56);
+	}
+
+	/**
+	 * Called from the save thread when the overviews of a region have been updated, replaces their cached copies.
+	 * <p>
+	 * The overviews of the regions of a previous cave layer are ignored.
+	 *
+	 * @param regionDirectory the directory of the region file
+	 * @param regionX the region X-coordinate
+	 * @param regionZ the region Z-coordinate
+	 * @param levels the pixels of each level starting from {@link MapRegionOverview#MIN_LEVEL}, owned by this map
+	 */
+	public void onOverviewUpdated(File regionDirectory, int regionX, int regionZ, int[][] levels) {
+		this.client.execute(() -> {
+			if (this.unloaded || !regionDirectory.equals(this.regionDirectory))
+				return;
+
+			for (int chunkZ = 0; chunkZ < 8; chunkZ++) {
+				for (int chunkX = 0; chunkX < 8; chunkX++) {
+					this.backfilledOverviews.remove(ChunkPos.toLong((regionX << 3) + chunkX, (regionZ << 3) + chunkZ));
+				}
+			}
+
+			for (int level = MapRegionOverview.MIN_LEVEL; level <= MapRegionOverview.MAX_LEVEL; level++) {
+				long key = getOverviewKey(regionX, regionZ, level);
+				this.loadingOverviews.remove(key);
+				this.cacheOverview(key, levels[level - MapRegionOverview.MIN_LEVEL]);
+			}
+		});
+	}
+
+	/**
+	 * Renders the overview of the given chunk, sampled for the region overviews.
+	 * <p>
+	 * The render tile of the chunk is used if present, neighbor chunks are never loaded.
+	 *
+	 * @param chunk the chunk
+	 * @return the sampled render colors, or {@code null} if they cannot be rendered
+	 */
+	int @Nullable [] renderOverview(MapChunk chunk) {
+		if (this.client.world == null)
+			return null;
+
+		boolean biomeColors = LambdaMap.get().getConfig().shouldRenderBiomeColors();
+		this.checkRenderSettings(biomeColors);
+		var pos = new BlockPos.Mutable();
+
+		if (chunk.hasRenderTile()) {
+			return MapRegionOverview.sampleChunk(this.getRenderTile(chunk, ChunkGetterMode.GET, biomeColors, pos));
+		}
+
+		// Only the sampled pixels are rendered, without allocating a render tile.
+		int step = 1 << MapRegionOverview.MIN_LEVEL;
+		var pixels = new int[MapChunk.SIZE];
+		var world = new ClientWorldWrapper(this.client.world, chunk);
+		for (int z = 0; z < 128; z += step) {
+			for (int x = 0; x < 128; x += step) {
+				pixels[z * 128 + x] = this.getRenderColor(chunk, chunk.getStartX() + x, chunk.getStartZ() + z,
+						ChunkGetterMode.GET, biomeColors, world, pos);
+			}
+		}
+		return MapRegionOverview.sampleChunk(pixels);
+	}
+
+	/**
+	 * Returns the render colors of the given chunk, after repainting the rectangle which changed since the last render.
+	 */
+	private int[] getRenderTile(MapChunk chunk, ChunkGetterMode mode, boolean biomeColors, BlockPos.Mutable pos) {
+		var tile = chunk.getRenderTile(this.renderGeneration);
+		var pixels = tile.getPixels();
+
+		if (tile.isDirty()) {
+			var world = new ClientWorldWrapper(this.client.world, chunk);
+			int startX = chunk.getStartX();
+			int startZ = chunk.getStartZ();
+
+			for (int z = tile.getDirtyMinZ(); z <= tile.getDirtyMaxZ(); z++) {
+				for (int x = tile.getDirtyMinX(); x <= tile.getDirtyMaxX(); x++) {
+					pixels[z * 128 + x] = this.getRenderColor(chunk, startX + x, startZ + z, mode, biomeColors, world, pos);
+				}
+			}
+
+			tile.markClean();
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Invalidates every render tile if the settings affecting the render colors have changed.
+	 */
+	private void checkRenderSettings(boolean biomeColors) {
+		int biomeBlendRadius = this.client.options.getBiomeBlendRadius().get();
+		if (biomeColors != this.renderBiomeColors || biomeBlendRadius != this.renderBiomeBlendRadius) {
+			this.renderBiomeColors = biomeColors;
+			this.renderBiomeBlendRadius = biomeBlendRadius;
+			this.invalidateRenderTiles();
+		}
+	}
+
+	/**
+	 * Invalidates the render tiles of every chunk, for example when the block colors are reloaded.
+	 */
+	public void invalidateRenderTiles() {
+		this.renderGeneration++;
+	}
+
+	/**
+	 * Invalidates the given area of the render tiles of the loaded chunks.
+	 * <p>
+	 * Coordinates are absolute.
+	 *
+	 * @param minX the minimum X-coordinate, inclusive
+	 * @param minZ the minimum Z-coordinate, inclusive
+	 * @param maxX the maximum X-coordinate, inclusive
+	 * @param maxZ the maximum Z-coordinate, inclusive
+	 */
+	public void invalidateRenderTiles(int minX, int minZ, int maxX, int maxZ) {
+		for (int chunkZ = MapChunk.blockToChunk(minZ); chunkZ <= MapChunk.blockToChunk(maxZ); chunkZ++) {
+			for (int chunkX = MapChunk.blockToChunk(minX); chunkX <= MapChunk.blockToChunk(maxX); chunkX++) {
+				// Not an access from the map views, so it doesn't count as a reference for the eviction.
+				var chunk = this.chunks.get(ChunkPos.toLong(chunkX, chunkZ));
+				if (chunk != null) {
+					chunk.invalidateRenderTile(minX - chunk.getStartX(), minZ - chunk.getStartZ(),
+							maxX - chunk.getStartX(), maxZ - chunk.getStartZ());
+				}
+			}
+		}
+	}
+
+	private void addChunk(long pos, MapChunk chunk) {
+		this.chunks.put(pos, chunk);
+		// A pending asynchronous load of this chunk would be outdated.
+		this.loadingChunks.remove(pos);
+		this.allChunksPinned = false;
+		// The water colors of the neighbor chunks are blended with this chunk.
+		this.invalidateRenderTiles(chunk.getStartX() - WATER_BLEND_RADIUS, chunk.getStartZ() - WATER_BLEND_RADIUS,
+				chunk.getStartX() + 127 + WATER_BLEND_RADIUS, chunk.getStartZ() + 127 + WATER_BLEND_RADIUS);
+	}
+
+	private int getRenderColor(MapChunk chunk, int x, int z, ChunkGetterMode mode, boolean biomeColors,
+			ClientWorldWrapper world, BlockPos.Mutable pos) {
 		int index = chunk.getIndex(x, z);
 		int color = chunk.getColor(index) & 255;
 		if (color / 4 == 0)
 			return 0;
 		else {
 			var mapColor = MapColorAccessor.getColors()[color / 4];
-			if (LambdaMap.get().getConfig().shouldRenderBiomeColors()) {
+			if (biomeColors) {
 				if (mapColor == MapColor.WATER) {
 					var biome = chunk.getBiome(index);
 					if (biome != null) {
-						return this.calculateWaterColor(x, z, biome, color & 3, mode);
+						return this.calculateWaterColor(chunk, x, z, biome, color & 3, mode);
 					}
 				} else {
 					var state = chunk.getBlockState(index);
-					if (state != null) {
-						int argb = 0xff000000 | this.client.getBlockColors().getColor(state, new ClientWorldWrapper(this.client.world, chunk), new BlockPos(x, 64, z), 0);
+					var tintProvider = state == null ? null : LambdaMap.get().getBlockStateTable().getTintProvider(state);
+					if (tintProvider != null) {
+						int argb = 0xff000000 | tintProvider.getColor(state, world, pos.set(x, 64, z), 0);
 						return applyShade(ColorUtil.argbMultiply(argb, 0xffb9bcb9), color & 3);
 					}
 				}
@@ -171,12 +768,12 @@ public class WorldMap {
 		}
 	}
 
-	private int calculateWaterColor(int x, int z, Biome sourceBiome, int shade, ChunkGetterMode mode) {
+	private int calculateWaterColor(MapChunk sourceChunk, int x, int z, Biome sourceBiome, int shade, ChunkGetterMode mode) {
 		int biomeBlendRadius = this.client.options.getBiomeBlendRadius().get();
 		if (biomeBlendRadius == 0) {
 			return applyShade(ColorUtil.argbDarken(sourceBiome.getWaterColor()), shade);
 		} else {
-			biomeBlendRadius = 2;
+			biomeBlendRadius = WATER_BLEND_RADIUS;
 			int multiplier = (biomeBlendRadius * 2 + 1) * (biomeBlendRadius * 2 + 1);
 			int r = 0;
 			int g = 0;
@@ -184,9 +781,13 @@ public class WorldMap {
 
 			for (int offsetZ = -biomeBlendRadius; offsetZ < biomeBlendRadius; offsetZ++) {
 				int resolveZ = z + offsetZ;
+				int chunkZ = MapChunk.blockToChunk(resolveZ);
 				for (int offsetX = -biomeBlendRadius; offsetX < biomeBlendRadius; offsetX++) {
 					int resolveX = x + offsetX;
-					var chunk = mode.getChunk(this, MapChunk.blockToChunk(resolveX), MapChunk.blockToChunk(resolveZ));
+					int chunkX = MapChunk.blockToChunk(resolveX);
+					// Most samples are in the source chunk, which saves looking it up again.
+					var chunk = chunkX == sourceChunk.getX() && chunkZ == sourceChunk.getZ()
+							? sourceChunk : mode.getChunk(this, chunkX, chunkZ);
 					if (chunk != null) {
 						var biome = chunk.getBiome(chunk.getIndex(resolveX, resolveZ));
 						if (biome != null) {
@@ -203,6 +804,10 @@ public class WorldMap {
 		}
 	}
 
+	private static int ceilDiv(int x, int y) {
+		return Math.floorDiv(x + y - 1, y);
+	}
+
 	private static int applyShade(int color, int shade) {
 		int modifier = 220;
 		if (shade == 3) {
@@ -228,7 +833,10 @@ public class WorldMap {
 	}
 
 	public @Nullable MapChunk getChunk(long pos) {
-		return this.chunks.get(pos);
+		var chunk = this.chunks.get(pos);
+		if (chunk != null)
+			chunk.markReferenced();
+		return chunk;
 	}
 
 	public @Nullable MapChunk getChunkOrLoad(int x, int z) {
@@ -242,7 +850,53 @@ public class WorldMap {
 			int z = ChunkPos.getPackedZ(pos);
 			chunk = MapChunk.load(this, x, z);
 			if (chunk != null)
-				this.chunks.put(pos, chunk);
+				this.addChunk(pos, chunk);
+		}
+		return chunk;
+	}
+
+	public @Nullable MapChunk getChunkOrLoadAsync(int x, int z) {
+		return this.getChunkOrLoadAsync(ChunkPos.toLong(x, z));
+	}
+
+	/**
+	 * Gets the chunk from memory, or if absent and stored on disk schedules its loading on an I/O thread.
+	 * <p>
+	 * If its region file isn't open yet, the region file is opened on an I/O thread first.
+	 * Once loaded, the chunk is added on the client thread and the map views are notified
+	 * through {@link LambdaMap#onMapChunkLoaded(MapChunk)}.
+	 *
+	 * @param pos the packed chunk position
+	 * @return the chunk if present in memory, else {@code null}
+	 */
+	public @Nullable MapChunk getChunkOrLoadAsync(long pos) {
+		var chunk = this.getChunk(pos);
+		if (chunk == null && !this.unloaded && !this.loadingChunks.containsKey(pos)) {
+			int x = ChunkPos.getPackedX(pos);
+			int z = ChunkPos.getPackedZ(pos);
+			var regionFile = this.getOrLoadRegionAsync(pos);
+
+			if (regionFile != null && regionFile.hasChunk(x, z)) {
+				int generation = ++this.loadGeneration;
+				this.loadingChunks.put(pos, generation);
+				regionFile.beginAsyncLoad();
+
+				CompletableFuture.supplyAsync(() -> regionFile.readChunk(x, z), this.ioService)
+						.whenCompleteAsync((stored, error) -> {
+							// The chunk may have been loaded synchronously, modified and evicted meanwhile.
+							boolean current = this.loadingChunks.remove(pos, generation);
+
+							if (error != null) {
+								LOGGER.error("Could not load chunk (" + x + ", " + z + ")", error);
+							} else if (stored != null && current && !this.unloaded) {
+								var loaded = stored.load(regionFile);
+								this.addChunk(pos, loaded);
+								LambdaMap.get().onMapChunkLoaded(loaded);
+							}
+
+							regionFile.endAsyncLoad();
+						}, this.client);
+			}
 		}
 		return chunk;
 	}
@@ -252,7 +906,7 @@ public class WorldMap {
 		var chunk = this.getChunk(pos);
 		if (chunk == null) {
 			chunk = MapChunk.loadOrCreate(this, x, z);
-			this.chunks.put(pos, chunk);
+			this.addChunk(pos, chunk);
 		}
 		return chunk;
 	}
@@ -263,7 +917,7 @@ public class WorldMap {
 			int x = ChunkPos.getPackedX(pos);
 			int z = ChunkPos.getPackedZ(pos);
 			chunk = MapChunk.loadOrCreate(this, x, z);
-			this.chunks.put(pos, chunk);
+			this.addChunk(pos, chunk);
 		}
 		return chunk;
 	}
@@ -274,7 +928,9 @@ public class WorldMap {
 		long pos = ChunkPos.toLong(x, z);
 		var regionFile = this.regionFiles.get(pos);
 
-		if (regionFile == null) {
+		if (regionFile == null && this.loadingRegions.containsKey(pos)) {
+			return this.awaitRegion(pos);
+		} else if (regionFile == null) {
 			try {
 				regionFile = MapRegionFile.load(this, x, z);
 				if (regionFile != null)
@@ -294,10 +950,14 @@ public class WorldMap {
 		long pos = ChunkPos.toLong(x, z);
 		var regionFile = this.regionFiles.get(pos);
 
+		if (regionFile == null && this.loadingRegions.containsKey(pos))
+			regionFile = this.awaitRegion(pos);
+
 		if (regionFile == null) {
 			try {
 				regionFile = MapRegionFile.loadOrCreate(this, x, z);
 				this.regionFiles.put(pos, regionFile);
+				this.missingRegions.remove(pos);
 			} catch (IOException e) {
 				LOGGER.error("Could not load or create region file (" + x + ", " + z + ")", e);
 				return null;
@@ -307,8 +967,100 @@ public class WorldMap {
 		return regionFile;
 	}
 
+	/**
+	 * Gets the region file of the given chunk if open, or schedules its opening on an I/O thread.
+	 * <p>
+	 * Once open, the loading of the chunks requested meanwhile is scheduled.
+	 *
+	 * @param chunkPos the packed chunk position
+	 * @return the region file if open, else {@code null}
+	 */
+	private @Nullable MapRegionFile getOrLoadRegionAsync(long chunkPos) {
+		int x = MapChunk.chunkToRegion(ChunkPos.getPackedX(chunkPos));
+		int z = MapChunk.chunkToRegion(ChunkPos.getPackedZ(chunkPos));
+		long pos = ChunkPos.toLong(x, z);
+		var regionFile = this.regionFiles.get(pos);
+
+		if (regionFile == null) {
+			if (this.isRegionMissing(pos))
+				return null;
+
+			var load = this.loadingRegions.get(pos);
+			if (load == null) {
+				load = new RegionLoad(CompletableFuture.supplyAsync(() -> {
+					try {
+						return MapRegionFile.load(this, x, z);
+					} catch (IOException e) {
+						LOGGER.error("Could not load region file (" + x + ", " + z + ")", e);
+						return null;
+					}
+				}, this.ioService));
+				this.loadingRegions.put(pos, load);
+
+				var finalLoad = load;
+				load.future.thenAcceptAsync(loaded -> {
+					// The region file may have been awaited by a synchronous load meanwhile.
+					if (this.loadingRegions.remove(pos, finalLoad))
+						this.onRegionLoaded(pos, finalLoad, loaded);
+				}, this.client);
+			}
+
+			load.requestedChunks.add(chunkPos);
+		}
+
+		return regionFile;
+	}
+
+	/**
+	 * Waits for the region file being opened asynchronously, instead of opening it a second time.
+	 */
+	private @Nullable MapRegionFile awaitRegion(long pos) {
+		var load = this.loadingRegions.remove(pos);
+		var regionFile = load.future.join();
+		this.onRegionLoaded(pos, load, regionFile);
+		return regionFile;
+	}
+
+	/**
+	 * {@return {@code true} if the region file has recently been found missing, otherwise {@code false}}
+	 *
+	 * @param pos the packed region position
+	 */
+	private boolean isRegionMissing(long pos) {
+		if (!this.missingRegions.containsKey(pos))
+			return false;
+
+		if (System.nanoTime() - this.missingRegions.get(pos) < 0)
+			return true;
+
+		this.missingRegions.remove(pos);
+		return false;
+	}
+
+	private void onRegionLoaded(long pos, RegionLoad load, @Nullable MapRegionFile regionFile) {
+		if (regionFile == null) {
+			// Remembered so views over unexplored terrain don't look it up every frame, until the region file is created.
+			if (!this.regionFiles.containsKey(pos))
+				this.missingRegions.put(pos, System.nanoTime() + MISSING_REGION_DURATION);
+			return;
+		}
+
+		if (this.unloaded) {
+			// The map has been unloaded while the region file was being opened.
+			regionFile.closeIfUnused();
+			return;
+		}
+
+		this.regionFiles.put(pos, regionFile);
+		for (long chunkPos : load.requestedChunks) {
+			this.getChunkOrLoadAsync(chunkPos);
+		}
+	}
+
 	public void unloadRegion(MapRegionFile regionFile) {
-		this.regionFiles.remove(ChunkPos.toLong(regionFile.getX(), regionFile.getZ()));
+		// The position may hold the region file of another cave layer.
+		this.regionFiles.remove(ChunkPos.toLong(regionFile.getX(), regionFile.getZ()), regionFile);
+		this.closingRegionFiles.remove(regionFile);
 	}
 
 	public void importMapState(MapState mapState, List<Marker> markers) {
@@ -348,9 +1100,35 @@ public class WorldMap {
 	}
 
 	public void tick() {
+		this.evictChunks();
+
+		this.getMarkerManager().tick(this.world);
+	}
+
+	/**
+	 * Evicts chunks until the amount of loaded chunks fits within the configured limit.
+	 * <p>
+	 * Uses the CLOCK algorithm: chunks are swept in load order, a chunk which has been accessed
+	 * since it was last swept gets a second chance and is moved to the end, otherwise it is unloaded.
+	 * Each chunk is swept at most once per tick, the sweep resumes from the same place on the next tick,
+	 * so a chunk accessed during the current tick is never evicted.
+	 * Chunks around the player, in the prefetched area and in the view of the open world map are never evicted,
+	 * even if this means going over the limit. If a whole sweep only finds pinned chunks, no sweep happens
+	 * until a chunk is loaded or the pinned areas change.
+	 * The view of the world map only pins its chunks when drawn at full detail, at the scales of the region overviews
+	 * the chunks loaded to backfill the overviews would otherwise stay loaded while the view covers them.
+	 */
+	private void evictChunks() {
 		var client = MinecraftClient.getInstance();
 		int viewDistance = Math.max(2, client.options.getEffectiveViewDistance() - 2);
 
+		int maxChunks = LambdaMap.get().getConfig().getMaxLoadedChunks();
+		int maxPinnedChunks = this.getMaxPinnedChunks(viewDistance);
+		// The limit never goes below the amount of chunks the views may pin, else every tick would sweep in vain.
+		maxChunks = maxChunks == 0 ? maxPinnedChunks * AUTO_MAX_LOADED_CHUNKS_FACTOR : Math.max(maxChunks, maxPinnedChunks);
+		if (this.chunks.size() <= maxChunks)
+			return;
+
 		int chunkX = ChunkSectionPos.getSectionCoord(this.playerViewX);
 		int chunkZ = ChunkSectionPos.getSectionCoord(this.playerViewZ);
 
@@ -359,29 +1137,177 @@ public class WorldMap {
 		int playerViewEndX = (chunkX + viewDistance) >> 3;
 		int playerViewEndZ = (chunkZ + viewDistance) >> 3;
 
-		int viewStartX = (int) (this.viewX - VIEW_RANGE);
-		int viewStartZ = (int) (this.viewZ - VIEW_RANGE);
-		int viewEndX = (int) (this.viewX + VIEW_RANGE);
-		int viewEndZ = (int) (this.viewZ + VIEW_RANGE);
+		// The world map view, empty if the world map isn't open or is drawn from the region overviews.
+		int mapViewStartX = 0;
+		int mapViewStartZ = 0;
+		int mapViewEndX = -1;
+		int mapViewEndZ = -1;
+		var renderer = LambdaMap.get().getRenderer();
+		if (client.currentScreen instanceof WorldMapScreen && getOverviewLevel(renderer.scale()) == 0) {
+			mapViewStartX = MapChunk.blockToChunk(renderer.cornerX());
+			mapViewStartZ = MapChunk.blockToChunk(renderer.cornerZ());
+			mapViewEndX = MapChunk.blockToChunk(renderer.cornerX() + renderer.scaledWidth());
+			mapViewEndZ = MapChunk.blockToChunk(renderer.cornerZ() + renderer.scaledHeight());
+		}
+
+		int[] pinnedAreas = {
+				playerViewStartX, playerViewStartZ, playerViewEndX, playerViewEndZ,
+				mapViewStartX, mapViewStartZ, mapViewEndX, mapViewEndZ,
+				this.prefetcher.getStartX(), this.prefetcher.getStartZ(), this.prefetcher.getEndX(), this.prefetcher.getEndZ()
+		};
+		if (this.allChunksPinned && Arrays.equals(pinnedAreas, this.sweptPinnedAreas))
+			return;
+		this.allChunksPinned = false;
+
+		boolean foundUnpinned = false;
+		int remainingVisits = this.chunks.size();
+		while (this.chunks.size() > maxChunks && remainingVisits-- > 0) {
+			long pos = this.chunks.firstLongKey();
+			var chunk = this.chunks.get(pos);
+
+			boolean pinned = (chunk.getX() >= playerViewStartX && chunk.getX() <= playerViewEndX
+					&& chunk.getZ() >= playerViewStartZ && chunk.getZ() <= playerViewEndZ)
+					|| (chunk.getX() >= mapViewStartX && chunk.getX() <= mapViewEndX
+					&& chunk.getZ() >= mapViewStartZ && chunk.getZ() <= mapViewEndZ)
+					|| this.prefetcher.isPrefetched(chunk);
+			foundUnpinned |= !pinned;
 
-		boolean hasViewer = this.viewX != this.playerViewX || this.viewZ != this.playerViewZ;
-		this.chunks.values().removeIf(chunk -> {
-			if (!((chunk.getX() >= playerViewStartX && chunk.getX() <= playerViewEndX && chunk.getZ() >= playerViewStartZ && chunk.getZ() <= playerViewEndZ)
-					|| (hasViewer && chunk.isCenterInBox(viewStartX, viewStartZ, viewEndX, viewEndZ)))) {
+			if (chunk.clearReferenced() || pinned) {
+				this.chunks.getAndMoveToLast(pos);
+			} else {
+				this.chunks.removeFirst();
 				chunk.unload();
-				return true;
 			}
-			return false;
-		});
+		}
 
-		this.getMarkerManager().tick(this.world);
+		if (!foundUnpinned && this.chunks.size() > maxChunks) {
+			this.allChunksPinned = true;
+			this.sweptPinnedAreas = pinnedAreas;
+		}
 	}
 
+	/**
+	 * {@return the largest amount of chunks the views may pin at once: around the player, in the prefetched area,
+	 * and in the world map view drawn at full detail over the whole window}
+	 *
+	 * @param viewDistance the view distance around the player in world chunks
+	 */
+	private int getMaxPinnedChunks(int viewDistance) {
+		var window = this.client.getWindow();
+		int playerViewSize = (viewDistance * 2 >> 3) + 2;
+		int mapView = (window.getFramebufferWidth() / 128 + 2) * (window.getFramebufferHeight() / 128 + 2);
+		return playerViewSize * playerViewSize + ChunkPrefetcher.MAX_PREFETCHED_CHUNKS + mapView;
+	}
+
+	/**
+	 * Queues the save of the oldest dirty chunks, up to the configured amount.
+	 * <p>
+	 * Runs periodically on the client thread, the chunks are then written by their region file save queue.
+	 */
+	private void saveDirtyChunks() {
+		if (this.unloaded)
+			return;
+
+		int maxChunks = LambdaMap.get().getConfig().getAutosaveMaxChunks();
+		var it = this.dirtyChunks.iterator();
+		for (int i = 0; i < maxChunks && it.hasNext(); i++) {
+			var chunk = it.next();
+			it.remove();
+			chunk.save();
+		}
+	}
+
+	/**
+	 * Schedules the writing of the save queue of the given region file on the save thread.
+	 *
+	 * @param regionFile the region file
+	 * @see MapRegionFile#queueSave(MapChunk.Snapshot)
+	 */
+	public void scheduleRegionSave(MapRegionFile regionFile) {
+		this.service.execute(() -> {
+			regionFile.writePendingSaves();
+			// Region files are only closed from the client thread.
+			this.client.execute(regionFile::closeIfUnused);
+		});
+	}
+
+	/**
+	 * Unloads this map, waiting for the queued saves to be written before closing the region files.
+	 */
 	public void unload() {
+		this.unloadAsync();
+		this.awaitUnload();
+	}
+
+	/**
+	 * Unloads this map without waiting for the queued saves, the region files are closed once the saves are written.
+	 *
+	 * @return a future completed on the client thread once the map is fully unloaded
+	 * @see #awaitUnload()
+	 */
+	public CompletableFuture<Void> unloadAsync() {
+		if (this.unloaded)
+			return this.unloadFuture;
+
+		this.beginUnload();
+		// The save thread runs its tasks in order, so this runs once the queued saves are written.
+		this.service.execute(() -> this.client.execute(this::finishUnload));
 		this.service.shutdown();
+		return this.unloadFuture;
+	}
+
+	/**
+	 * Waits for the queued saves of this map being unloaded, then closes the region files right away.
+	 */
+	public void awaitUnload() {
+		try {
+			if (!this.service.awaitTermination(30, TimeUnit.SECONDS))
+				LOGGER.warn("Timed out while waiting for the map chunks to be saved.");
+		} catch (InterruptedException e) {
+			LOGGER.warn("Interrupted while waiting for the map chunks to be saved.", e);
+			Thread.currentThread().interrupt();
+		}
+		this.finishUnload();
+	}
+
+	private void beginUnload() {
+		this.unloaded = true;
+		this.ioService.shutdown();
 		this.markerManager.save();
 		this.chunks.forEach((pos, chunk) -> chunk.unload());
 		this.chunks.clear();
+		this.dirtyChunks.clear();
+	}
+
+	private void finishUnload() {
+		if (this.unloadFuture.isDone())
+			return;
+
+		new ArrayList<>(this.regionFiles.values()).forEach(MapRegionFile::closeIfUnused);
+		new ArrayList<>(this.closingRegionFiles).forEach(MapRegionFile::closeIfUnused);
 		this.regionFiles.clear();
+		this.closingRegionFiles.clear();
+		LOGGER.debug("Map chunk pool: {} hits, {} misses, {} arena pages in use.",
+				this.pool.getHits(), this.pool.getMisses(), this.arena.getUsedPages());
+		this.arena.close();
+		this.unloadFuture.complete(null);
+	}
+
+	/**
+	 * Represents a region file being opened asynchronously.
+	 *
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	private static final class RegionLoad {
+		private final CompletableFuture<@Nullable MapRegionFile> future;
+		/**
+		 * Stores the packed positions of the chunks requested while the region file is being opened.
+		 */
+		private final LongSet requestedChunks = new LongOpenHashSet();
+
+		private RegionLoad(CompletableFuture<@Nullable MapRegionFile> future) {
+			this.future = future;
+		}
 	}
 }
@@ -17,8 +17,14 @@
 
 package dev.lambdaurora.lambdamap.map.storage;
 
+import dev.lambdaurora.lambdamap.LambdaMap;
 import dev.lambdaurora.lambdamap.map.MapChunk;
 import dev.lambdaurora.lambdamap.map.WorldMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtIo;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,11 +33,24 @@ import org.jetbrains.annotations.Nullable;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Represents a region file.
+ * <p>
+ * Since version 1, the file is split into sectors of {@value #SECTOR_SIZE} bytes, the first sector being the header.
+ * Each chunk occupies a contiguous run of sectors starting with its payload size as a 32-bit signed integer,
+ * followed by the compressed NBT payload. When a chunk grows past its sectors it is relocated to free sectors
+ * and its old sectors are reclaimed, so saving a chunk never has to move other chunks.
+ * <p>
+ * Version 0 files, where chunks were packed one after another, are migrated on first open.
+ * <p>
+ * Chunk saves are queued as snapshots and written in batches on the save thread of the world map.
  *
  * @author LambdAurora
  * @version 1.0.0
@@ -39,22 +58,59 @@ import java.nio.charset.StandardCharsets;
  */
 public class MapRegionFile implements Closeable {
 	private static final Logger LOGGER = LogManager.getLogger();
-	private static final int VERSION = 0;
+	private static final int VERSION = 1;
 	private static final int CHUNKS = 8;
 	private static final int HEADER_SIZE = 1024;
+	private static final int SECTOR_SIZE = HEADER_SIZE;
 	private static final long INVALID_CHUNK = 0xffffffff;
 
 	private final WorldMap worldMap;
 	private final File file;
-	private final RandomAccessFile raf;
+	private final RegionFileAccess access;
 	private final Header header;
+	/**
+	 * Stores which sectors are in use, the header sector is always in use.
+	 */
+	private final BitSet usedSectors = new BitSet();
 	private int loadedChunks = 0;
+	private int pendingLoads = 0;
+	private boolean closed = false;
+	/**
+	 * Stores the chunk snapshots waiting to be saved, by chunk index.
+	 */
+	private Int2ObjectMap<MapChunk.Snapshot> pendingSaves = new Int2ObjectOpenHashMap<>();
+	/**
+	 * Stores the chunk snapshots currently being written, by chunk index.
+	 */
+	private Int2ObjectMap<MapChunk.Snapshot> savingChunks = Int2ObjectMaps.emptyMap();
+	/**
+	 * Stores the chunk overviews waiting to be added to the region overview without saving their chunk, by chunk index.
+	 */
+	private Int2ObjectMap<int[]> pendingOverviews = new Int2ObjectOpenHashMap<>();
+	private boolean saveScheduled = false;
+	/**
+	 * {@code true} while the save thread writes a batch and updates the region overview, this region file isn't closed meanwhile.
+	 */
+	private boolean writing = false;
+	/**
+	 * The decoded levels of the overview of this region, read on the first save and only accessed from the save thread.
+	 */
+	private int @Nullable [][] overviewLevels;
 
-	public MapRegionFile(WorldMap worldMap, File file, RandomAccessFile raf, Header header) {
+	MapRegionFile(WorldMap worldMap, File file, RegionFileAccess access, Header header) {
 		this.worldMap = worldMap;
 		this.file = file;
-		this.raf = raf;
+		this.access = access;
 		this.header = header;
+
+		this.usedSectors.set(0);
+		for (int i = 0; i < this.header.getEntriesCount(); i++) {
+			long entry = this.header.getChunkEntry(i);
+			if (entry != INVALID_CHUNK) {
+				int sector = getSectorOffset(entry);
+				this.usedSectors.set(sector, sector + getSectorCount(entry));
+			}
+		}
 	}
 
 	public int getX() {
@@ -65,6 +121,13 @@ public class MapRegionFile implements Closeable {
 		return this.header.getZ();
 	}
 
+	/**
+	 * {@return the directory of this region file, which depends on the cave layer}
+	 */
+	public File getDirectory() {
+		return this.file.getParentFile();
+	}
+
 	/**
 	 * Returns the world map of this region file.
 	 *
@@ -81,17 +144,98 @@ public class MapRegionFile implements Closeable {
 	private static MapRegionFile open(WorldMap map, int x, int z, File file) throws IOException {
 		boolean exists = file.exists();
 
-		var raf = new RandomAccessFile(file, "rw");
+		// Migrate before opening the file with the configured backend, as a mapped file cannot be replaced on some platforms.
+		if (exists && readVersion(file) < VERSION)
+			migrateFromV0(map, x, z, file);
+
+		var access = RegionFileAccess.open(file, HEADER_SIZE, LambdaMap.get().getConfig().useMemoryMappedRegions());
+
+		var header = new Header(access, x, z);
+		try {
+			if (!exists) {
+				header.writeDefault();
+			} else {
+				header.read();
+			}
+		} catch (IOException e) {
+			access.close();
+			throw e;
+		}
+
+		return new MapRegionFile(map, file, access, header);
+	}
+
+	/**
+	 * Reads the version of the given region file with regular file I/O.
+	 *
+	 * @param file the region file
+	 * @return the version of the region file
+	 * @throws IOException if the header cannot be read
+	 */
+	private static int readVersion(File file) throws IOException {
+		try (var raf = new RandomAccessFile(file, "r")) {
+			raf.seek(16);
+			return raf.readUnsignedShort();
+		}
+	}
+
+	/**
+	 * Migrates a version 0 region file to the current sector-based layout.
+	 * <p>
+	 * The migrated file is written next to the old one, which is only replaced once the migration succeeded.
+	 *
+	 * @param map the world map
+	 * @param x the region X-coordinate
+	 * @param z the region Z-coordinate
+	 * @param file the region file
+	 * @throws IOException if the old file cannot be read or the new file cannot be written
+	 */
+	private static void migrateFromV0(WorldMap map, int x, int z, File file) throws IOException {
+		LOGGER.info("Migrating region file {} to version {}.", file, VERSION);
+
+		var payloads = new byte[CHUNKS * CHUNKS][];
+		try (var raf = new RandomAccessFile(file, "r")) {
+			var headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+			raf.readFully(headerBuffer.array());
+			var offsets = headerBuffer.position(32).asLongBuffer();
+
+			for (int i = 0; i < payloads.length; i++) {
+				long offset = offsets.get(i);
+				if (offset == INVALID_CHUNK)
+					continue;
+
+				raf.seek(HEADER_SIZE + offset);
+				int size = raf.readInt();
+				if (size < 0 || HEADER_SIZE + offset + 4 + size > raf.length()) {
+					LOGGER.error("Dropping chunk {} of region ({}, {}) during migration: invalid size {}.", i, x, z, size);
+					continue;
+				}
+
+				payloads[i] = new byte[size];
+				raf.readFully(payloads[i]);
+			}
+		}
+
+		var migratedFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		if (migratedFile.exists() && !migratedFile.delete())
+			throw new IOException("Could not delete leftover migration file " + migratedFile);
 
-		raf.seek(0);
-		var header = new Header(raf.getChannel(), x, z);
-		if (!exists) {
+		var access = RegionFileAccess.open(migratedFile, HEADER_SIZE, false);
+		try {
+			var header = new Header(access, x, z);
 			header.writeDefault();
-		} else {
-			header.read();
+
+			var migrated = new MapRegionFile(map, migratedFile, access, header);
+			for (int i = 0; i < payloads.length; i++) {
+				if (payloads[i] != null)
+					migrated.writeChunkPayload(i, payloads[i], payloads[i].length);
+			}
+			header.write();
+		} finally {
+			access.close();
 		}
 
-		return new MapRegionFile(map, file, raf, header);
+		Files.move(migratedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 	}
 
 	/**
@@ -104,7 +248,7 @@ public class MapRegionFile implements Closeable {
 	 * @throws IOException if the file cannot be created or opened or if the header fails to be written/read
 	 */
 	public static @Nullable MapRegionFile load(WorldMap worldMap, int x, int z) throws IOException {
-		var file = new File(worldMap.getDirectory(), "region_" + x + "_" + z + ".lmr");
+		var file = new File(worldMap.getRegionDirectory(), "region_" + x + "_" + z + ".lmr");
 		if (file.exists())
 			return open(worldMap, x, z, file);
 		return null;
@@ -120,38 +264,99 @@ public class MapRegionFile implements Closeable {
 	 * @throws IOException if the file cannot be created or opened or if the header fails to be written/read
 	 */
 	public static MapRegionFile loadOrCreate(WorldMap worldMap, int x, int z) throws IOException {
-		var file = new File(worldMap.getDirectory(), "region_" + x + "_" + z + ".lmr");
+		var file = new File(worldMap.getRegionDirectory(), "region_" + x + "_" + z + ".lmr");
 		return open(worldMap, x, z, file);
 	}
 
-	public synchronized @Nullable MapChunk loadChunk(int x, int z) {
-		long chunkPos = this.header.getChunkEntry(x, z);
-		if (chunkPos == INVALID_CHUNK) {
+	/**
+	 * Returns whether the given chunk is stored in this region file.
+	 *
+	 * @param x the chunk X-coordinate
+	 * @param z the chunk Z-coordinate
+	 * @return {@code true} if the chunk is stored, else {@code false}
+	 */
+	public synchronized boolean hasChunk(int x, int z) {
+		int index = Header.getIndex(x, z);
+		return this.header.hasChunk(x, z) || this.pendingSaves.containsKey(index) || this.savingChunks.containsKey(index);
+	}
+
+	public @Nullable MapChunk loadChunk(int x, int z) {
+		var stored = this.readChunk(x, z);
+		if (stored == null)
+			return null;
+		return stored.load(this);
+	}
+
+	/**
+	 * Reads the stored data of the given chunk, the snapshot of its pending save if any, otherwise the NBT read from the file.
+	 * <p>
+	 * This doesn't create the chunk itself, and can be called from any thread.
+	 *
+	 * @param x the chunk X-coordinate
+	 * @param z the chunk Z-coordinate
+	 * @return the stored chunk if the chunk is stored and could be read, else {@code null}
+	 */
+	public synchronized @Nullable StoredChunk readChunk(int x, int z) {
+		int index = Header.getIndex(x, z);
+		var snapshot = this.pendingSaves.get(index);
+		if (snapshot == null)
+			snapshot = this.savingChunks.get(index);
+		if (snapshot != null)
+			return new StoredChunk(snapshot, null);
+
+		var nbt = this.readChunkNbt(x, z);
+		return nbt == null ? null : new StoredChunk(null, nbt);
+	}
+
+	/**
+	 * Reads and decompresses the NBT of the given chunk from the file.
+	 *
+	 * @param x the chunk X-coordinate
+	 * @param z the chunk Z-coordinate
+	 * @return the chunk NBT if the chunk is stored and could be read, else {@code null}
+	 */
+	private @Nullable NbtCompound readChunkNbt(int x, int z) {
+		long entry = this.header.getChunkEntry(x, z);
+		if (entry == INVALID_CHUNK) {
 			return null;
 		}
 
 		try {
-			this.raf.seek(HEADER_SIZE + chunkPos);
-			int size = this.raf.readInt();
-			if (size < 0) {
+			long position = (long) getSectorOffset(entry) * SECTOR_SIZE;
+			int size = this.access.readInt(position);
+			if (size < 0 || size > getSectorCount(entry) * SECTOR_SIZE - 4) {
 				LOGGER.error("Chunk ({}, {}) has an invalid size: {}", x, z, size);
 				return null;
 			}
-			byte[] chunkBytes = new byte[size];
-			int readBytes = this.raf.read(chunkBytes);
-			if (readBytes != size) {
-				LOGGER.error("Chunk ({}, {}) is truncated: expected {} but read {}", x, z, size, readBytes);
-				return null;
-			}
 
-			var nbt = NbtIo.readCompressed(new ByteArrayInputStream(chunkBytes));
-			return MapChunk.fromNbt(this, nbt);
+			try (var stream = this.access.openStream(position + 4, size)) {
+				return NbtIo.readCompressed(stream);
+			}
 		} catch (IOException e) {
 			LOGGER.error("Failed to load chunk (" + x + ", " + z + ")", e);
 		}
 		return null;
 	}
 
+	/**
+	 * Marks the start of an asynchronous chunk load, the region file is kept open until it ends.
+	 *
+	 * @see #endAsyncLoad()
+	 */
+	public synchronized void beginAsyncLoad() {
+		this.pendingLoads++;
+	}
+
+	/**
+	 * Marks the end of an asynchronous chunk load, closes the region file if it isn't used anymore.
+	 *
+	 * @see #beginAsyncLoad()
+	 */
+	public synchronized void endAsyncLoad() {
+		this.pendingLoads--;
+		this.closeIfUnused();
+	}
+
 	public MapChunk loadChunkOrCreate(int x, int z) {
 		var chunk = this.loadChunk(x, z);
 		if (chunk == null) {
@@ -162,13 +367,14 @@ public class MapRegionFile implements Closeable {
 
 	public synchronized void unloadChunk(MapChunk chunk) {
 		this.loadedChunks--;
-		try {
-			this.saveChunk(chunk);
-		} catch (IOException e) {
-			LOGGER.error("Could not save chunk " + chunk, e);
-		}
+		this.closeIfUnused();
+	}
 
-		if (this.loadedChunks == 0) {
+	/**
+	 * Closes this region file if no chunk is loaded from it and no load or save is pending.
+	 */
+	public synchronized void closeIfUnused() {
+		if (!this.closed && this.loadedChunks == 0 && this.pendingLoads == 0 && !this.hasPendingSaves()) {
 			try {
 				this.close();
 			} catch (IOException e) {
@@ -177,71 +383,232 @@ public class MapRegionFile implements Closeable {
 		}
 	}
 
-	public synchronized void saveChunk(MapChunk chunk) throws IOException {
-		if (chunk.isEmpty())
-			return;
+	private boolean hasPendingSaves() {
+		return this.saveScheduled || this.writing || !this.pendingSaves.isEmpty() || !this.savingChunks.isEmpty() || !this.pendingOverviews.isEmpty();
+	}
+
+	/**
+	 * Queues the save of the given chunk snapshot.
+	 * <p>
+	 * A snapshot replaces any snapshot of the same chunk still waiting in the queue,
+	 * the queue is then written in a single pass by {@link #writePendingSaves()} on the save thread.
+	 *
+	 * @param snapshot the snapshot of the chunk to save
+	 */
+	public synchronized void queueSave(MapChunk.Snapshot snapshot) {
+		this.pendingSaves.put(Header.getIndex(snapshot.getX(), snapshot.getZ()), snapshot);
+		this.scheduleSave();
+	}
+
+	/**
+	 * Queues the given chunk overview to be added to the region overview without saving the chunk,
+	 * used for the chunks saved before the region had an overview.
+	 *
+	 * @param x the chunk X-coordinate
+	 * @param z the chunk Z-coordinate
+	 * @param overview the overview of the chunk, as returned by {@link MapRegionOverview#sampleChunk(int[])}
+	 */
+	public synchronized void queueOverview(int x, int z, int[] overview) {
+		this.pendingOverviews.put(Header.getIndex(x, z), overview);
+		this.scheduleSave();
+	}
+
+	private void scheduleSave() {
+		if (!this.saveScheduled) {
+			this.saveScheduled = true;
+			this.worldMap.scheduleRegionSave(this);
+		}
+	}
+
+	/**
+	 * Writes the queued chunk saves.
+	 * <p>
+	 * The snapshots are serialized without holding the lock of this region file,
+	 * then the payloads are written in the order of their sectors, followed by a single header write.
+	 * The region overview is updated last, this region file counts as busy until then so it isn't closed
+	 * and its overview deleted before being written.
+	 */
+	public void writePendingSaves() {
+		Int2ObjectMap<MapChunk.Snapshot> batch;
+		Int2ObjectMap<int[]> overviews;
+		synchronized (this) {
+			batch = this.pendingSaves;
+			this.pendingSaves = new Int2ObjectOpenHashMap<>();
+			overviews = this.pendingOverviews;
+			this.pendingOverviews = new Int2ObjectOpenHashMap<>();
+			// Kept readable until written, so loading one of these chunks meanwhile doesn't read outdated data.
+			this.savingChunks = batch;
+			this.saveScheduled = false;
+			this.writing = true;
+		}
 
-		var stream = new ByteArrayOutputStream(8096);
-		chunk.lock();
-		NbtIo.writeCompressed(chunk.toNbt(), stream);
-		chunk.unlock();
+		var payloads = new Int2ObjectOpenHashMap<byte[]>(batch.size());
+		for (var entry : Int2ObjectMaps.fastIterable(batch)) {
+			var snapshot = entry.getValue();
+			try {
+				var stream = new ByteArrayOutputStream(8096);
+				NbtIo.writeCompressed(snapshot.toNbt(), stream);
+				payloads.put(entry.getIntKey(), stream.toByteArray());
+			} catch (IOException e) {
+				LOGGER.error("Could not save chunk (" + snapshot.getX() + ", " + snapshot.getZ() + ")", e);
+			}
+		}
 
-		int size = stream.size();
-		long chunkPos = this.header.getChunkEntry(chunk.getX(), chunk.getZ());
-		if (chunkPos == INVALID_CHUNK) {
-			chunkPos = Math.max(this.raf.length(), HEADER_SIZE);
-			this.header.writeChunkEntry(chunk.getX(), chunk.getZ(), chunkPos - HEADER_SIZE);
-		} else {
-			chunkPos += HEADER_SIZE;
-			this.raf.seek(chunkPos);
-			this.shiftChunksIfNeeded(
-					chunkPos,
-					this.raf.readInt() + 4, // Read old size of the chunk, including the size int.
-					size + 4);
+		synchronized (this) {
+			try {
+				if (!this.closed && !payloads.isEmpty()) {
+					int[] indices = payloads.keySet().toIntArray();
+					IntArrays.quickSort(indices, (a, b) -> Integer.compare(this.getSectorOrder(a), this.getSectorOrder(b)));
+
+					for (int index : indices) {
+						byte[] payload = payloads.get(index);
+						this.writeChunkPayload(index, payload, payload.length);
+					}
+					this.header.write();
+				}
+			} catch (IOException e) {
+				LOGGER.error("Could not save region file (" + this.getX() + ", " + this.getZ() + ")", e);
+			} finally {
+				this.savingChunks = Int2ObjectMaps.emptyMap();
+			}
 		}
 
-		this.raf.seek(chunkPos);
-		this.raf.writeInt(size);
-		this.raf.write(stream.toByteArray());
-		this.header.write();
-		stream.close();
+		try {
+			if (!payloads.isEmpty() || !overviews.isEmpty())
+				this.updateOverview(payloads.isEmpty() ? List.of() : batch.values(), overviews);
+		} finally {
+			synchronized (this) {
+				this.writing = false;
+				this.notifyAll();
+			}
+		}
 	}
 
-	public void shiftChunksIfNeeded(long pos, long oldSize, long newSize) throws IOException {
-		long delta = newSize - oldSize;
-
-		if (delta <= 0 || this.raf.length() == pos + oldSize) {
-			return;
+	/**
+	 * Updates the overview of this region with the given saved chunks, then hands a copy of it to the world map.
+	 *
+	 * @param snapshots the snapshots of the saved chunks
+	 * @param overviews the overviews of the chunks which weren't saved, by chunk index
+	 */
+	private void updateOverview(Collection<MapChunk.Snapshot> snapshots, Int2ObjectMap<int[]> overviews) {
+		var directory = this.getDirectory();
+		var levels = this.overviewLevels;
+		if (levels == null)
+			levels = this.overviewLevels = MapRegionOverview.readLevels(directory, this.getX(), this.getZ());
+
+		boolean changed = false;
+		// Applied first, as the overviews of the saved snapshots are more recent.
+		for (var entry : Int2ObjectMaps.fastIterable(overviews)) {
+			int index = entry.getIntKey();
+			MapRegionOverview.update(levels, index % CHUNKS, index / CHUNKS, entry.getValue());
+			changed = true;
+		}
+		for (var snapshot : snapshots) {
+			var overview = snapshot.getOverview();
+			if (overview != null) {
+				MapRegionOverview.update(levels, snapshot.getX(), snapshot.getZ(), overview);
+				changed = true;
+			}
 		}
 
-		for (int i = 0; i < this.header.getEntriesCount(); i++) {
-			long offset = this.header.getChunkEntry(i);
-			if (offset != INVALID_CHUNK && pos < offset + HEADER_SIZE) {
-				this.header.writeChunkEntry(i, offset + delta);
+		if (changed) {
+			MapRegionOverview.write(directory, this.getX(), this.getZ(), levels);
+
+			var copy = new int[levels.length][];
+			for (int i = 0; i < levels.length; i++) {
+				copy[i] = levels[i].clone();
 			}
+			this.worldMap.onOverviewUpdated(directory, this.getX(), this.getZ(), copy);
+		}
+	}
+
+	private int getSectorOrder(int index) {
+		long entry = this.header.getChunkEntry(index);
+		return entry == INVALID_CHUNK ? Integer.MAX_VALUE : getSectorOffset(entry);
+	}
+
+	/**
+	 * Writes the payload of a chunk into sectors, relocating the chunk if it doesn't fit in its current sectors.
+	 * <p>
+	 * The header is updated in memory but not written to the file.
+	 *
+	 * @param index the index of the chunk in the header
+	 * @param payload the compressed chunk payload
+	 * @param size the size of the payload
+	 * @throws IOException if the payload cannot be written
+	 */
+	private void writeChunkPayload(int index, byte[] payload, int size) throws IOException {
+		int sectors = (size + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+		long oldEntry = this.header.getChunkEntry(index);
+
+		int sector;
+		if (oldEntry != INVALID_CHUNK && sectors <= getSectorCount(oldEntry)) {
+			// The chunk still fits, overwrite in place and reclaim the sectors it doesn't need anymore.
+			sector = getSectorOffset(oldEntry);
+			this.usedSectors.clear(sector + sectors, sector + getSectorCount(oldEntry));
+			oldEntry = INVALID_CHUNK;
+		} else {
+			sector = this.allocateSectors(sectors);
 		}
 
-		long size = this.raf.length() - pos - oldSize;
+		this.access.writeSized((long) sector * SECTOR_SIZE, payload, size);
+		this.header.writeChunkEntry(index, packEntry(sector, sectors));
+
+		if (oldEntry != INVALID_CHUNK) {
+			// Reclaim the old sectors only once the chunk has been written elsewhere.
+			int oldSector = getSectorOffset(oldEntry);
+			this.usedSectors.clear(oldSector, oldSector + getSectorCount(oldEntry));
+		}
+	}
+
+	/**
+	 * Finds and reserves the first run of free sectors which is large enough.
+	 *
+	 * @param count the amount of sectors to reserve
+	 * @return the first sector of the reserved run
+	 */
+	private int allocateSectors(int count) {
+		int start = this.usedSectors.nextClearBit(1);
+		while (true) {
+			int end = this.usedSectors.nextSetBit(start);
+			if (end == -1 || end - start >= count)
+				break;
+			start = this.usedSectors.nextClearBit(end);
+		}
 
-		this.raf.seek(pos + oldSize);
-		// Hopefully the data to shift is small enough.
-		// If the data is too big then shift by blocks of 512 or 1024 bytes.
-		byte[] dataToShift = new byte[(int) size];
-		int readBytes = this.raf.read(dataToShift);
-		this.raf.seek(pos + newSize);
-		this.raf.write(dataToShift);
+		this.usedSectors.set(start, start + count);
+		return start;
 	}
 
+	/**
+	 * Closes this region file, waiting for the batch being written by the save thread if any.
+	 *
+	 * @throws IOException if the header cannot be written or the file cannot be closed
+	 */
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		while (this.writing) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the region file to be written.");
+			}
+		}
+
 		this.header.write();
+		this.closed = true;
 
 		boolean empty = this.header.isEmpty();
 
-		this.raf.close();
+		// Trim the trailing free sectors.
+		this.access.trim((long) this.usedSectors.length() * SECTOR_SIZE);
+
+		this.access.close();
 		this.worldMap.unloadRegion(this);
 
 		if (empty) {
+			MapRegionOverview.delete(this.getDirectory(), this.getX(), this.getZ());
 			if (!this.file.delete()) {
 				LOGGER.warn("Failed to delete empty region file {}.", this.file);
 			} else {
@@ -250,6 +617,46 @@ public class MapRegionFile implements Closeable {
 		}
 	}
 
+	private static long packEntry(int sector, int count) {
+		return ((long) sector << 32) | (count & 0xffffffffL);
+	}
+
+	private static int getSectorOffset(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	private static int getSectorCount(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Represents the stored data of a chunk, either the snapshot of its pending save or the NBT read from the file.
+	 *
+	 * @version 1.0.0
+	 * @since 1.0.0
+	 */
+	public static final class StoredChunk {
+		private final MapChunk.@Nullable Snapshot snapshot;
+		private final @Nullable NbtCompound nbt;
+
+		private StoredChunk(MapChunk.@Nullable Snapshot snapshot, @Nullable NbtCompound nbt) {
+			this.snapshot = snapshot;
+			this.nbt = nbt;
+		}
+
+		/**
+		 * Creates the chunk from its stored data, must be called from the client thread.
+		 *
+		 * @param regionFile the region file storing the chunk
+		 * @return the chunk
+		 */
+		public MapChunk load(MapRegionFile regionFile) {
+			if (this.snapshot != null)
+				return MapChunk.fromSnapshot(regionFile, this.snapshot);
+			return MapChunk.fromNbt(regionFile, this.nbt);
+		}
+	}
+
 	/**
 	 * Represents the header of a region file.
 	 * <p>
@@ -260,22 +667,27 @@ public class MapRegionFile implements Closeable {
 	 *     <li>An ASCII space {@code ' '}</li>
 	 *     <li>The X-coordinate as a 32-bit signed integer</li>
 	 *     <li>The Z-coordinate as a 32-bit signed integer</li>
-	 *     <li>Starting at the 32th byte, ordered list (size 64) of chunk offset from the Header as 64-bit unsigned integers</li>
+	 *     <li>Starting at the 32th byte, ordered list (size 64) of chunk entries as 64-bit integers, {@code -1} if absent:
+	 *         <ul>
+	 *             <li>version 0: the chunk offset from the header</li>
+	 *             <li>version 1: the first sector of the chunk in the upper 32 bits, the amount of sectors in the lower 32 bits</li>
+	 *         </ul>
+	 *     </li>
 	 * </ul>
 	 *
 	 * @version 1.0.0
 	 * @since 1.0.0
 	 */
 	static class Header {
-		private final FileChannel channel;
+		private final RegionFileAccess access;
 		private final ByteBuffer header;
 		private final LongBuffer chunkData;
 		private final int x;
 		private final int z;
 
-		private Header(FileChannel channel, int x, int z) {
-			this.channel = channel;
-			this.header = ByteBuffer.allocateDirect(HEADER_SIZE);
+		private Header(RegionFileAccess access, int x, int z) {
+			this.access = access;
+			this.header = access.header();
 			this.header.position(32);
 			this.chunkData = this.header.asLongBuffer();
 			this.chunkData.limit(CHUNKS * CHUNKS);
@@ -291,7 +703,7 @@ public class MapRegionFile implements Closeable {
 			return this.z;
 		}
 
-		public long getEntriesCount() {
+		public int getEntriesCount() {
 			return this.chunkData.limit();
 		}
 
@@ -316,20 +728,25 @@ public class MapRegionFile implements Closeable {
 			this.header.putInt(this.x);
 			this.header.putInt(this.z);
 
-			this.header.position(0);
-			this.channel.write(this.header, 0L);
+			this.access.writeHeader();
 		}
 
-		public void read() throws IOException {
-			this.header.position(0);
-			this.channel.read(this.header, 0L);
+		/**
+		 * Reads the header from the file.
+		 *
+		 * @return the version of the region file
+		 * @throws IOException if the header cannot be read
+		 */
+		public int read() throws IOException {
+			this.access.readHeader();
 
 			this.header.position(16);
 
-			short version = this.header.getShort();
+			int version = Short.toUnsignedInt(this.header.getShort());
 			this.header.get();
 			this.header.getInt();
 			this.header.getInt();
+			return version;
 		}
 
 		public void writeChunkEntry(int index, long offset) {
@@ -337,7 +754,7 @@ public class MapRegionFile implements Closeable {
 		}
 
 		public void writeChunkEntry(int x, int z, long offset) {
-			this.writeChunkEntry((z & 7) * CHUNKS + (x & 7), offset);
+			this.writeChunkEntry(getIndex(x, z), offset);
 		}
 
 		public long getChunkEntry(int index) {
@@ -345,7 +762,7 @@ public class MapRegionFile implements Closeable {
 		}
 
 		public long getChunkEntry(int x, int z) {
-			return this.getChunkEntry((z & 7) * CHUNKS + (x & 7));
+			return this.getChunkEntry(getIndex(x, z));
 		}
 
 		public boolean hasChunk(int x, int z) {
@@ -359,5 +776,9 @@ public class MapRegionFile implements Closeable {
 			}
 			return true;
 		}
+
+		public static int getIndex(int x, int z) {
+			return (z & 7) * CHUNKS + (x & 7);
+		}
 	}
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map.storage;
+
+import net.minecraft.client.texture.NativeImage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Represents the overviews of a region, downsampled images of the rendered region used when the world map is zoomed out.
+ * <p>
+ * Each level {@code n} is stored alongside the region file as a PNG image of {@code 1024 >> n} pixels wide,
+ * where each pixel is the render color of the block at the north-west corner of the {@code 2^n} blocks wide square it covers.
+ * The overviews are updated with the chunks saved in the region file, the open region files keep their decoded levels
+ * so only the rectangles of the saved chunks are updated before the images are encoded again.
+ * <p>
+ * The pixels of the chunks present in an overview are never fully transparent, empty pixels are stored as {@link #EMPTY},
+ * so a chunk which hasn't been saved since the overview exists can be told apart.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class MapRegionOverview {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	public static final int MIN_LEVEL = 1;
+	public static final int MAX_LEVEL = 4;
+	/**
+	 * The stored color of the empty pixels of the chunks present in an overview.
+	 */
+	public static final int EMPTY = 0x01000000;
+	private static final int REGION_SIZE = 1024;
+	private static final int CHUNK_SIZE = 128;
+
+	private MapRegionOverview() {
+		throw new UnsupportedOperationException("MapRegionOverview only contains static definitions.");
+	}
+
+	/**
+	 * {@return the width in pixels of the overview of a region at the given level}
+	 *
+	 * @param level the level
+	 */
+	public static int getSize(int level) {
+		return REGION_SIZE >> level;
+	}
+
+	public static File getFile(File directory, int x, int z, int level) {
+		return new File(directory, "region_" + x + "_" + z + ".lod" + (1 << level) + ".png");
+	}
+
+	/**
+	 * Samples the overview of a chunk at the lowest level from its rendered colors.
+	 *
+	 * @param pixels the rendered colors of the chunk, row by row
+	 * @return the overview of the chunk
+	 */
+	public static int[] sampleChunk(int[] pixels) {
+		int size = CHUNK_SIZE >> MIN_LEVEL;
+		var overview = new int[size * size];
+		for (int z = 0; z < size; z++) {
+			for (int x = 0; x < size; x++) {
+				overview[z * size + x] = pixels[(z << MIN_LEVEL) * CHUNK_SIZE + (x << MIN_LEVEL)];
+			}
+		}
+		return overview;
+	}
+
+	/**
+	 * Reads the overview of a region.
+	 *
+	 * @param directory the directory of the region files
+	 * @param x the region X-coordinate
+	 * @param z the region Z-coordinate
+	 * @param level the level
+	 * @return the pixels of the overview row by row, or {@code null} if the overview doesn't exist or cannot be read
+	 */
+	public static int @Nullable [] read(File directory, int x, int z, int level) {
+		var file = getFile(directory, x, z, level);
+		if (!file.exists())
+			return null;
+
+		try (var image = readImage(file, level)) {
+			if (image == null)
+				return null;
+
+			int size = getSize(level);
+			var pixels = new int[size * size];
+			for (int pixelZ = 0; pixelZ < size; pixelZ++) {
+				for (int pixelX = 0; pixelX < size; pixelX++) {
+					pixels[pixelZ * size + pixelX] = image.getPixelColor(pixelX, pixelZ);
+				}
+			}
+			return pixels;
+		}
+	}
+
+	/**
+	 * Reads every level of the overview of a region, to be updated with {@link #update(int[][], int, int, int[])}.
+	 *
+	 * @param directory the directory of the region files
+	 * @param x the region X-coordinate
+	 * @param z the region Z-coordinate
+	 * @return the pixels of each level row by row starting from {@link #MIN_LEVEL}, the missing levels are blank
+	 */
+	public static int[][] readLevels(File directory, int x, int z) {
+		var levels = new int[MAX_LEVEL - MIN_LEVEL + 1][];
+		for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+			var pixels = read(directory, x, z, level);
+			levels[level - MIN_LEVEL] = pixels != null ? pixels : new int[getSize(level) * getSize(level)];
+		}
+		return levels;
+	}
+
+	/**
+	 * Updates only the rectangle of the given chunk in every level of the overview of its region.
+	 *
+	 * @param levels the pixels of each level, as returned by {@link #readLevels(File, int, int)}
+	 * @param chunkX the chunk X-coordinate
+	 * @param chunkZ the chunk Z-coordinate
+	 * @param overview the overview of the chunk, as returned by {@link #sampleChunk(int[])}
+	 */
+	public static void update(int[][] levels, int chunkX, int chunkZ, int[] overview) {
+		int sourceSize = CHUNK_SIZE >> MIN_LEVEL;
+		for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+			var pixels = levels[level - MIN_LEVEL];
+			int size = getSize(level);
+			int chunkSize = CHUNK_SIZE >> level;
+			// The sampling step in the lowest level overview of the chunk.
+			int step = 1 << (level - MIN_LEVEL);
+
+			int startX = (chunkX & 7) * chunkSize;
+			int startZ = (chunkZ & 7) * chunkSize;
+			for (int pixelZ = 0; pixelZ < chunkSize; pixelZ++) {
+				int row = (startZ + pixelZ) * size + startX;
+				for (int pixelX = 0; pixelX < chunkSize; pixelX++) {
+					int color = overview[pixelZ * step * sourceSize + pixelX * step];
+					pixels[row + pixelX] = color == 0 ? EMPTY : color;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes every level of the overview of a region.
+	 * <p>
+	 * Called from the save thread, each image is written to a temporary file first so a concurrent read never sees a partial image.
+	 *
+	 * @param directory the directory of the region files
+	 * @param x the region X-coordinate
+	 * @param z the region Z-coordinate
+	 * @param levels the pixels of each level, as returned by {@link #readLevels(File, int, int)}
+	 */
+	public static void write(File directory, int x, int z, int[][] levels) {
+		for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+			var file = getFile(directory, x, z, level);
+			var pixels = levels[level - MIN_LEVEL];
+			int size = getSize(level);
+
+			try (var image = new NativeImage(size, size, false)) {
+				for (int pixelZ = 0; pixelZ < size; pixelZ++) {
+					for (int pixelX = 0; pixelX < size; pixelX++) {
+						image.setPixelColor(pixelX, pixelZ, pixels[pixelZ * size + pixelX]);
+					}
+				}
+
+				var tempFile = new File(directory, file.getName() + ".tmp");
+				image.writeTo(tempFile);
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				LOGGER.error("Could not save the overview of region (" + x + ", " + z + ") at level " + level + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * Deletes every level of the overview of a region.
+	 *
+	 * @param directory the directory of the region files
+	 * @param x the region X-coordinate
+	 * @param z the region Z-coordinate
+	 */
+	public static void delete(File directory, int x, int z) {
+		for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+			var file = getFile(directory, x, z, level);
+			if (file.exists() && !file.delete()) {
+				LOGGER.warn("Failed to delete region overview {}.", file);
+			}
+		}
+	}
+
+	private static @Nullable NativeImage readImage(File file, int level) {
+		try (var stream = new FileInputStream(file)) {
+			var image = NativeImage.read(stream);
+			int size = getSize(level);
+			if (image.getWidth() != size || image.getHeight() != size) {
+				LOGGER.warn("Ignoring region overview {} with an invalid size.", file);
+				image.close();
+				return null;
+			}
+			return image;
+		} catch (IOException e) {
+			LOGGER.error("Could not read region overview " + file + ".", e);
+			return null;
+		}
+	}
+}
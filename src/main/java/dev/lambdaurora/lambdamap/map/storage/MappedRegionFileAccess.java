@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Represents a region file backend mapping the file in memory.
+ * <p>
+ * Chunk payloads are read straight from the mapping, the header is kept in memory and copied into the mapping when written.
+ * The mapping is grown by steps of {@value #GROWTH_STEP} bytes when writing past its end,
+ * the file is never shrunk so it stays padded to a multiple of {@value #GROWTH_STEP} bytes.
+ * <p>
+ * Mappings are released once garbage collected, so on some platforms an empty region file cannot be deleted right after being closed.
+ * Region files are migrated before being mapped, so a mapped file never has to be replaced.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MappedRegionFileAccess implements RegionFileAccess {
+	private static final int GROWTH_STEP = 65536;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer header;
+	private MappedByteBuffer data;
+	private boolean closed = false;
+
+	MappedRegionFileAccess(File file, int headerSize) throws IOException {
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = this.raf.getChannel();
+		this.header = ByteBuffer.allocate(headerSize);
+		this.data = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(headerSize, this.channel.size()));
+	}
+
+	@Override
+	public ByteBuffer header() {
+		return this.header;
+	}
+
+	@Override
+	public void readHeader() throws IOException {
+		this.checkOpen();
+		this.header.put(0, this.data, 0, this.header.capacity());
+		this.header.position(0);
+	}
+
+	@Override
+	public void writeHeader() throws IOException {
+		this.checkOpen();
+		this.data.put(0, this.header, 0, this.header.capacity());
+		this.header.position(0);
+	}
+
+	@Override
+	public int readInt(long position) throws IOException {
+		this.checkOpen();
+		this.checkBounds(position, 4);
+		return this.data.getInt((int) position);
+	}
+
+	@Override
+	public InputStream openStream(long position, int size) throws IOException {
+		this.checkOpen();
+		this.checkBounds(position, size);
+		return new ByteBufferInputStream(this.data.slice((int) position, size));
+	}
+
+	@Override
+	public void writeSized(long position, byte[] payload, int size) throws IOException {
+		this.checkOpen();
+		this.ensureCapacity(position + 4 + size);
+		this.data.putInt((int) position, size);
+		this.data.put((int) position + 4, payload, 0, size);
+	}
+
+	@Override
+	public void trim(long length) {
+		// Cannot safely shrink a file which is mapped.
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.closed)
+			throw new IOException("Tried to access a closed region file.");
+	}
+
+	private void checkBounds(long position, int size) throws IOException {
+		if (position < 0 || size < 0 || position + size > this.data.capacity())
+			throw new EOFException("Tried to read past the end of the region file.");
+	}
+
+	private void ensureCapacity(long length) throws IOException {
+		if (length <= this.data.capacity())
+			return;
+
+		long newLength = (length + GROWTH_STEP - 1) / GROWTH_STEP * GROWTH_STEP;
+		if (newLength > Integer.MAX_VALUE)
+			throw new IOException("Region file is too large to be mapped.");
+
+		this.data.force();
+		this.data = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, newLength);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed)
+			return;
+
+		this.closed = true;
+		this.data.force();
+		this.raf.close();
+	}
+
+	/**
+	 * Represents an input stream reading from a byte buffer.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!this.buffer.hasRemaining())
+				return -1;
+
+			length = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
+}
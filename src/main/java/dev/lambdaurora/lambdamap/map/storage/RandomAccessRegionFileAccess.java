@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a region file backend using {@link RandomAccessFile}.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class RandomAccessRegionFileAccess implements RegionFileAccess {
+	private final RandomAccessFile raf;
+	private final ByteBuffer header;
+
+	RandomAccessRegionFileAccess(File file, int headerSize) throws IOException {
+		this.raf = new RandomAccessFile(file, "rw");
+		this.header = ByteBuffer.allocateDirect(headerSize);
+	}
+
+	@Override
+	public ByteBuffer header() {
+		return this.header;
+	}
+
+	@Override
+	public void readHeader() throws IOException {
+		this.raf.getChannel().read(this.header.position(0), 0L);
+		this.header.position(0);
+	}
+
+	@Override
+	public void writeHeader() throws IOException {
+		this.raf.getChannel().write(this.header.position(0), 0L);
+		this.header.position(0);
+	}
+
+	@Override
+	public int readInt(long position) throws IOException {
+		this.raf.seek(position);
+		return this.raf.readInt();
+	}
+
+	@Override
+	public InputStream openStream(long position, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		this.raf.seek(position);
+		this.raf.readFully(bytes);
+		return new ByteArrayInputStream(bytes);
+	}
+
+	@Override
+	public void writeSized(long position, byte[] payload, int size) throws IOException {
+		this.raf.seek(position);
+		this.raf.writeInt(size);
+		this.raf.write(payload, 0, size);
+	}
+
+	@Override
+	public void trim(long length) throws IOException {
+		if (this.raf.length() > length)
+			this.raf.setLength(length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.raf.close();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2021-2022 LambdAurora <email@lambdaurora.dev>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dev.lambdaurora.lambdamap.map.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the low-level I/O backend of a region file.
+ *
+ * @author LambdAurora
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+interface RegionFileAccess extends Closeable {
+	/**
+	 * Returns the buffer backing the header of the region file.
+	 * <p>
+	 * Depending on the backend, writes to this buffer may or may not be directly reflected in the file,
+	 * {@link #writeHeader()} must be called to guarantee the header is written.
+	 *
+	 * @return the header buffer
+	 */
+	ByteBuffer header();
+
+	/**
+	 * Reads the header from the file into the {@linkplain #header() header buffer}.
+	 *
+	 * @throws IOException if the header cannot be read
+	 */
+	void readHeader() throws IOException;
+
+	/**
+	 * Writes the {@linkplain #header() header buffer} to the file.
+	 *
+	 * @throws IOException if the header cannot be written
+	 */
+	void writeHeader() throws IOException;
+
+	/**
+	 * Reads a 32-bit signed integer at the given position.
+	 *
+	 * @param position the position in the file
+	 * @return the read integer
+	 * @throws IOException if the integer cannot be read
+	 */
+	int readInt(long position) throws IOException;
+
+	/**
+	 * Opens a stream reading the given range of the file.
+	 *
+	 * @param position the position in the file
+	 * @param size the amount of bytes to read
+	 * @return the stream
+	 * @throws IOException if the range cannot be read
+	 */
+	InputStream openStream(long position, int size) throws IOException;
+
+	/**
+	 * Writes a size-prefixed payload at the given position.
+	 *
+	 * @param position the position in the file
+	 * @param payload the payload
+	 * @param size the amount of bytes of the payload to write
+	 * @throws IOException if the payload cannot be written
+	 */
+	void writeSized(long position, byte[] payload, int size) throws IOException;
+
+	/**
+	 * Shrinks the file to the given length if it is longer, if supported by the backend.
+	 *
+	 * @param length the length
+	 * @throws IOException if the file cannot be shrunk
+	 */
+	void trim(long length) throws IOException;
+
+	/**
+	 * Opens the given file.
+	 *
+	 * @param file the file
+	 * @param headerSize the size of the header
+	 * @param memoryMapped {@code true} to map the file in memory, or {@code false} to use regular file I/O
+	 * @return the file access
+	 * @throws IOException if the file cannot be opened
+	 */
+	static RegionFileAccess open(File file, int headerSize, boolean memoryMapped) throws IOException {
+		if (memoryMapped)
+			return new MappedRegionFileAccess(file, headerSize);
+		return new RandomAccessRegionFileAccess(file, headerSize);
+	}
+}
@@ -17,21 +17,33 @@
 
 package dev.lambdaurora.lambdamap.mixin;
 
+import dev.lambdaurora.lambdamap.ChunkRasterizer;
 import dev.lambdaurora.lambdamap.extension.WorldChunkExtension;
 import net.minecraft.world.chunk.WorldChunk;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 
+import java.util.Arrays;
+
 @Mixin(WorldChunk.class)
 public class WorldChunkMixin implements WorldChunkExtension {
 	@Unique
-	private boolean lambdamap$dirty;
+	private final long[] lambdamap$dirtyColumns = new long[4];
 	@Unique
 	private boolean lambdamap$biomeDirty = true;
+	/**
+	 * The cached heights of the first air block below the ceiling, followed by the scan height they have been searched from.
+	 */
+	@Unique
+	private int[] lambdamap$ceilingAir;
 
 	@Override
 	public boolean lambdamap$isDirty() {
-		return this.lambdamap$dirty;
+		for (long mask : this.lambdamap$dirtyColumns) {
+			if (mask != 0L)
+				return true;
+		}
+		return false;
 	}
 
 	@Override
@@ -41,12 +53,53 @@ public class WorldChunkMixin implements WorldChunkExtension {
 
 	@Override
 	public void lambdamap$markDirty() {
-		this.lambdamap$dirty = true;
+		Arrays.fill(this.lambdamap$dirtyColumns, -1L);
+		this.lambdamap$ceilingAir = null;
+	}
+
+	@Override
+	public void lambdamap$markColumnDirty(int x, int z) {
+		int index = ChunkRasterizer.getColumnIndex(x, z);
+		this.lambdamap$dirtyColumns[index >> 6] |= 1L << (index & 63);
+
+		var ceilingAir = this.lambdamap$ceilingAir;
+		if (ceilingAir != null)
+			ceilingAir[index] = NO_CEILING_AIR;
+	}
+
+	@Override
+	public long[] lambdamap$getDirtyColumns() {
+		return this.lambdamap$dirtyColumns.clone();
+	}
+
+	@Override
+	public void lambdamap$markClean(long[] columns) {
+		for (int i = 0; i < this.lambdamap$dirtyColumns.length; i++) {
+			this.lambdamap$dirtyColumns[i] &= ~columns[i];
+		}
+
+		// The biomes of the remaining dirty columns still have to be updated.
+		if (!this.lambdamap$isDirty())
+			this.lambdamap$biomeDirty = false;
+	}
+
+	@Override
+	public int lambdamap$getCeilingAir(int index, int scanHeight) {
+		var ceilingAir = this.lambdamap$ceilingAir;
+		if (ceilingAir == null || ceilingAir[256] != scanHeight)
+			return NO_CEILING_AIR;
+		return ceilingAir[index];
 	}
 
 	@Override
-	public void lambdamap$markClean() {
-		this.lambdamap$dirty = false;
-		this.lambdamap$biomeDirty = false;
+	public void lambdamap$cacheCeilingAir(int index, int scanHeight, int airY) {
+		var ceilingAir = this.lambdamap$ceilingAir;
+		if (ceilingAir == null || ceilingAir[256] != scanHeight) {
+			ceilingAir = new int[257];
+			Arrays.fill(ceilingAir, 0, 256, NO_CEILING_AIR);
+			ceilingAir[256] = scanHeight;
+			this.lambdamap$ceilingAir = ceilingAir;
+		}
+		ceilingAir[index] = airY;
 	}
 }